@@ -0,0 +1,327 @@
+package index;
+
+import java.util.concurrent.locks.StampedLock;
+
+import global.PageId;
+import global.RID;
+import global.SearchKey;
+
+/**
+ * <h3>Minibase Extendible Hash Index</h3>
+ * This unclustered index implements extendible hashing as described on pages
+ * 373 to 379 of the textbook (3rd edition).  Instead of chaining overflow pages
+ * onto a fixed set of buckets, a bucket that overflows is split in two and the
+ * directory is doubled when needed, so an equality lookup reads the directory
+ * and a single bucket page.
+ * <br><br>
+ * The directory depth is the global depth, and every directory slot records
+ * the local depth of its bucket.  Once the global depth reaches
+ * HashDirectory.MAX_DEPTH the directory can not double anymore, and buckets
+ * that still overflow fall back to overflow chaining.  So do buckets whose
+ * entries all share a hash value, like the entries of a duplicated key, since
+ * no split can separate them.
+ */
+public class ExtendibleHashIndex extends HashIndex {
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Opens an extendible index file given its name, or creates a new index file
+   * if the name doesn't exist; a null name produces a temporary index file.
+   * A new index starts with a global depth of 0 and a single empty bucket.
+   */
+  public ExtendibleHashIndex(String fileName) {
+
+	  super(fileName, 0);
+
+  } // public ExtendibleHashIndex(String fileName)
+
+  /**
+   * Opens an index file given its name, or creates a new index file with a
+   * global depth of depth (and 2^depth empty buckets) if the name doesn't exist.
+   */
+  public ExtendibleHashIndex(String fileName, int depth) {
+
+	  super(fileName, depth);
+
+  } // public ExtendibleHashIndex(String fileName, int depth)
+
+  /**
+   * Opens or creates an index file like ExtendibleHashIndex(String, int), in the
+   * given page store and allocator instead of the Minibase database.
+   */
+  public ExtendibleHashIndex(String fileName, int depth, PageStore pages, PageAllocator allocator) {
+
+	  super(fileName, depth, pages, allocator);
+
+  } // public ExtendibleHashIndex(String fileName, int depth, PageStore pages, PageAllocator allocator)
+
+  /**
+   * Gets the hashing scheme of the index.
+   */
+  protected int getScheme() {
+	  return HashDirectory.EXTENDIBLE_SCHEME;
+  }
+
+  /**
+   * Creates an empty extendible HashIndex file with 2^depth primary bucket
+   * pages.  Used by HashIndex constructor.
+   */
+  protected void CreateEmptyHashIndexFile(int depth) {
+
+	  // Allocate the index file, with one bucket for each of the 2^depth slots
+	  directory = HashDirectory.create(pages, allocator, HashDirectory.EXTENDIBLE_SCHEME, depth, 1 << depth);
+	  headId = directory.getHeadId();
+
+	  for (int i = 0; i < (1 << depth); i++)
+	  {
+		  allocateBucket(i);
+		  directory.setLocalDepth(i, depth);
+	  }
+
+	  if (null != fileName && fileName.length() > 0)
+	  {
+		  // Only add the file entry when we don't have a temporary file
+		  allocator.addFileEntry(fileName, headId);
+	  }
+
+  } // protected void CreateEmptyHashIndexFile(int depth)
+
+  /**
+   * Inserts a new data entry into the index file.  If the entry adds an
+   * overflow page to its bucket, the bucket is split (doubling the directory
+   * when its local depth equals the global depth) until the entry's bucket
+   * fits in one page again or can not be split any further.
+   *
+   * @throws IllegalArgumentException if the entry is too large
+   */
+  public void insertEntry(SearchKey key, RID rid) {
+
+	  if (key.getLength() > HashBucketPage.MAX_ENTRY_SIZE)
+	  {
+		  throw new IllegalArgumentException("Attempted to insert an entry that is too large!");
+	  }
+
+	  // Insert the entry in its bucket, chaining an overflow page if needed
+	  boolean splitNeeded;
+
+	  long structureStamp = structureLatch.readLock();
+	  try
+	  {
+		  int slot = getSlot(key);
+		  splitNeeded = insertIntoLatchedBucket(directory, slot, new DataEntry(key, rid));
+
+		  if (splitNeeded)
+		  {
+			  // Only wait for the exclusive latch if a split can shorten the chain
+			  StampedLock bucketLatch = getBucketLatch(slot);
+			  long bucketStamp = bucketLatch.readLock();
+			  try
+			  {
+				  splitNeeded = canSplit(slot);
+			  }
+			  finally
+			  {
+				  bucketLatch.unlockRead(bucketStamp);
+			  }
+		  }
+	  }
+	  finally
+	  {
+		  structureLatch.unlockRead(structureStamp);
+	  }
+
+	  if (!splitNeeded)
+	  {
+		  return;
+	  }
+
+	  // Splitting changes the directory, so it waits for every other operation on the index
+	  structureStamp = latchStructure();
+	  try
+	  {
+		  // Split the entry's bucket for as long as it has overflow pages and can still be
+		  // split, looking it up again each time since another thread or the split may move it
+		  int slot = getSlot(key);
+
+		  while (hasOverflowPages(slot) && canSplit(slot) && splitBucket(slot))
+		  {
+			  slot = getSlot(key);
+		  }
+	  }
+	  finally
+	  {
+		  structureLatch.unlockWrite(structureStamp);
+	  }
+
+  } // public void insertEntry(SearchKey key, RID rid)
+
+  /**
+   * Inserts a batch of new data entries into the index file one entry at a
+   * time, since every insert may split the bucket it lands in.
+   *
+   * @throws IllegalArgumentException if the arrays have different lengths or
+   * an entry is too large
+   */
+  public void insertBatch(SearchKey[] keys, RID[] rids) {
+
+	  if (keys.length != rids.length)
+	  {
+		  throw new IllegalArgumentException("Attempted to insert a batch with " + keys.length + " keys and " + rids.length + " rids!");
+	  }
+
+	  for (int i = 0; i < keys.length; i++)
+	  {
+		  insertEntry(keys[i], rids[i]);
+	  }
+
+  } // public void insertBatch(SearchKey[] keys, RID[] rids)
+
+  /**
+   * An extendible hash index grows by splitting buckets, so it can not be resized.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  public void beginResize(int depth) {
+	  throw new UnsupportedOperationException("An extendible hash index resizes itself by splitting buckets!");
+  }
+
+  /**
+   * Gets the lowest directory slot of the bucket that the given key hashes to,
+   * which is the slot holding the bucket's Bloom filter.
+   */
+  protected int getSlot(SearchKey key) {
+	  return key.getHash(directory.getLocalDepth(key.getHash(directory.getDepth())));
+  }
+
+  /**
+   * Gets the local depth of the bucket of the given directory slot.
+   */
+  protected int getSlotDepth(int slot) {
+	  return directory.getLocalDepth(slot);
+  }
+
+  /**
+   * Tells whether the bucket of the given directory slot has overflow pages,
+   * from its chain length in the directory.
+   */
+  protected boolean hasOverflowPages(int slot) {
+	  return directory.getChainLength(slot) > 1;
+  }
+
+  /**
+   * Tells whether splitting the bucket of the given directory slot, as many
+   * times as the directory allows, can separate its entries: its local depth
+   * must be below HashDirectory.MAX_DEPTH, and its entries must not all share
+   * the hash bits up to that depth, or every split would leave them together
+   * and double the directory for nothing.  Reads the bucket's chain, so the
+   * caller holds the bucket's latch or the structure latch exclusively.
+   */
+  protected boolean canSplit(int slot) {
+
+	  if (directory.getLocalDepth(slot) >= HashDirectory.MAX_DEPTH)
+	  {
+		  return false;
+	  }
+
+	  PageId primaryBucketId = new PageId(directory.getBucketId(slot));
+	  HashBucketPage primaryBucketPage = new HashBucketPage();
+	  pages.pinPage(primaryBucketId, primaryBucketPage, PIN_DISKIO);
+
+	  boolean separable = false;
+	  int firstHash = -1;
+
+	  for (DataEntry entry : primaryBucketPage.getEntries(pages))
+	  {
+		  int hash = entry.key.getHash(HashDirectory.MAX_DEPTH);
+
+		  if (-1 == firstHash)
+		  {
+			  firstHash = hash;
+		  }
+		  else if (hash != firstHash)
+		  {
+			  separable = true;
+			  break;
+		  }
+	  }
+
+	  pages.unpinPage(primaryBucketId, UNPIN_CLEAN);
+
+	  return separable;
+
+  } // protected boolean canSplit(int slot)
+
+  /**
+   * Splits the bucket at the given directory slot into two buckets of one more
+   * local depth, doubling the directory first if the bucket's local depth equals
+   * the global depth.  Entries are moved to the new bucket by the next bit of
+   * their hash value.  The caller holds the structure latch exclusively.
+   *
+   * @return true if the bucket was split, false if the directory is full
+   */
+  protected boolean splitBucket(int slot) {
+
+	  int globalDepth = directory.getDepth();
+	  int localDepth = directory.getLocalDepth(slot);
+
+	  if (localDepth == globalDepth)
+	  {
+		  if (HashDirectory.MAX_DEPTH == globalDepth)
+		  {
+			  // The directory can not double anymore, so the bucket keeps its overflow pages
+			  return false;
+		  }
+
+		  // Double the directory, the new upper half mirrors the lower half
+		  int slotCount = 1 << globalDepth;
+		  directory.grow(2 * slotCount);
+
+		  for (int i = 0; i < slotCount; i++)
+		  {
+			  directory.setBucketId(slotCount + i, directory.getBucketId(i));
+			  directory.setLocalDepth(slotCount + i, directory.getLocalDepth(i));
+		  }
+		  directory.setDepth(++globalDepth);
+	  }
+
+	  // The bucket's entries now hash on one more bit, the ones with that bit set move out
+	  int lowBits = slot & ((1 << localDepth) - 1);
+	  int newLowBits = lowBits | (1 << localDepth);
+
+	  PageId oldBucketId = new PageId(directory.getBucketId(slot));
+	  HashBucketPage oldBucketPage = new HashBucketPage();
+	  pages.pinPage(oldBucketId, oldBucketPage, PIN_DISKIO);
+
+	  PageId newBucketId = allocator.allocatePage();
+	  HashBucketPage newBucketPage = new HashBucketPage();
+	  pages.pinPage(newBucketId, newBucketPage, PIN_MEMCPY);
+
+	  // Move the entries from the whole chain, repacking the ones that stay
+	  boolean oldBucketDirty = oldBucketPage.moveEntries(newBucketPage, localDepth + 1, newLowBits, pages, allocator);
+
+	  pages.unpinPage(oldBucketId, oldBucketDirty ? UNPIN_DIRTY : UNPIN_CLEAN);
+	  pages.unpinPage(newBucketId, UNPIN_DIRTY);
+
+	  // Every slot that pointed to the old bucket gets the new local depth, and
+	  // those whose next bit is set now point to the new bucket
+	  for (int i = lowBits; i < (1 << globalDepth); i += (1 << localDepth))
+	  {
+		  directory.setLocalDepth(i, localDepth + 1);
+
+		  if (newLowBits == (i & ((1 << (localDepth + 1)) - 1)))
+		  {
+			  directory.setBucketId(i, newBucketId.pid);
+		  }
+	  }
+
+	  // Each half only keeps the filter bits of the entries it still holds, and
+	  // inserts start over at its primary page since the chain was rewritten
+	  rebuildSlot(lowBits);
+	  rebuildSlot(newLowBits);
+
+	  return true;
+
+  } // protected boolean splitBucket(int slot)
+
+} // public class ExtendibleHashIndex extends HashIndex
@@ -1,118 +1,261 @@
 package index;
 
-import global.Minibase;
+import java.util.ArrayList;
+import java.util.List;
+
 import global.PageId;
+import global.SearchKey;
 
 /**
  * An object in this class is a page in a linked list.
  * The entire linked list is a hash table bucket.
+ * <br><br>
+ * A page keeps no state besides its own data, and the class has no static
+ * mutable state, so the buckets of different indexes can be used from
+ * different threads; HashIndex latches the buckets of one index.  The methods
+ * that walk the list are given the PageStore, and the PageAllocator when they
+ * may add pages, of the index the bucket belongs to.
  */
 class HashBucketPage extends SortedPage {
 	
 
-	// This variable is used for deleteEntry to track whether or not we are at the primary bucket page or not
-  static int recursionLevel = -1;
+	// Bytes of the slot directory an entry takes on a sorted page, besides its own length
+	protected static final int ENTRY_OVERHEAD = 4;
+
+	// Bytes of a page that entries and their slots can take
+	protected static final int PAGE_BYTES = MAX_ENTRY_SIZE + ENTRY_OVERHEAD;
+
+	// Flags returned by deleteEntry(DataEntry, int, PageStore): this page changed, a later page was freed
+	protected static final int DELETE_DIRTY = 1;
+	protected static final int DELETE_FREED = 2;
 
   /**
    * Gets the number of entries in this page and later
-   * (overflow) pages in the list.
+   * (overflow) pages in the list.  The list is walked one
+   * page at a time, so only one later page is pinned at once.
    * <br><br>
    * To find the number of entries in a bucket, apply 
    * countEntries to the primary page of the bucket.
    */
-  public int countEntries() {
+  public int countEntries(PageStore pages) {
 	  
-	  int entryCount = 0;
-	  PageId nextPageId = new PageId();
-	  nextPageId = this.getNextPage();
+	  // Start with this page's count
+	  int entryCount = getEntryCount();
+	  PageId nextPageId = getNextPage();
 	  
-	  // If there is another page after this one, add its count (and any subsequent pages' counts to the total).
-	  if (INVALID_PAGEID != nextPageId.pid) 
+	  // Add the count of every later page, leaving each one unpinned before loading the next
+	  while (INVALID_PAGEID != nextPageId.pid) 
 	  {
 		  HashBucketPage nextPage = new HashBucketPage();
-		  Minibase.BufferManager.pinPage(nextPageId, nextPage, PIN_DISKIO);
-		  entryCount += nextPage.countEntries();
-		  // Leave page unpinned
-		  Minibase.BufferManager.unpinPage(nextPageId, UNPIN_CLEAN); 
+		  pages.pinPage(nextPageId, nextPage, PIN_DISKIO);
+		  entryCount += nextPage.getEntryCount();
+		  
+		  PageId followingPageId = nextPage.getNextPage();
+		  pages.unpinPage(nextPageId, UNPIN_CLEAN);
+		  nextPageId = followingPageId;
 	  } 
-	  // Add this page's count to the total
-	  entryCount += getEntryCount();
 	  
 	  return entryCount;
 
-  } // public int countEntries()
+  } // public int countEntries(PageStore pages)
 
   /**
    * Inserts a new data entry into this page. If there is no room
-   * on this page, recursively inserts in later pages of the list.  
-   * If necessary, creates a new page at the end of the list.
+   * on this page, inserts in the first later page of the list that
+   * has room.  If necessary, creates a new page at the end of the list.
    * Does not worry about keeping order between entries in different pages.
+   * The list is walked one page at a time, so besides this page only
+   * one later page is pinned at once.
    * <br><br>
    * To insert a data entry into a bucket, apply insertEntry to the
    * primary page of the bucket.
    * 
    * @return true if inserting made this page dirty, false otherwise
+   * @throws IllegalStateException if the entry is too large for a page
    */
-  public boolean insertEntry(DataEntry entry) {
+  public boolean insertEntry(DataEntry entry, PageStore pages, PageAllocator allocator) {
 	  
-	  boolean dirty = false;
-	  
-	  try 
+	  // Try this page first
+	  if (insertIntoPage(entry))
 	  {
-		  // Try to insert the entry into this page, if it throws an IllegalStateException, then
-		  // there is not enough room on this page.
-		  dirty = super.insertEntry(entry);
+		  return true;
 	  }
-	  catch (IllegalStateException e)
+	  
+	  // This page stays pinned by the caller, later pages are pinned here
+	  HashBucketPage currentPage = this;
+	  PageId currentPageId = new PageId(INVALID_PAGEID);
+	  boolean dirty = false;
+	  
+	  while (true)
 	  {
-		  // This page does not have enough space, we must insert into the next page on the list
-
-		  PageId nextPageId = new PageId();
-		  nextPageId = this.getNextPage();
+		  // The current page does not have enough space, we must insert into the next page on the list
+		  PageId nextPageId = currentPage.getNextPage();
 		  HashBucketPage nextPage = new HashBucketPage();
+		  boolean created = false;
 		  
-		  if (INVALID_PAGEID == nextPageId.pid) 	  
+		  if (INVALID_PAGEID == nextPageId.pid)
 		  {
-			  // There is no page after this one so we must create a new HashBucketPage 
-			  
-			  // Create the new HashBucketPage
-			  nextPageId = Minibase.DiskManager.allocate_page();
-			  
-			  // Set this page's next page to the one we just created
-			  this.setNextPage(nextPageId);
-			  
-			  // This page is now dirty.  Will also indicate that we need to UNPIN_DIRTY the next page
-			  dirty = true;			  
-			  
-			  // Initialize the next page that we just created
-			  Minibase.BufferManager.pinPage(nextPageId, nextPage, PIN_MEMCPY);
+			  // There is no page after this one so we must create a new HashBucketPage, linked from the current one
+			  nextPageId = allocator.allocatePage();
+			  currentPage.setNextPage(nextPageId);
+			  created = true;
+		  }
+		  
+		  // Done with the current page before loading the next one
+		  if (INVALID_PAGEID != currentPageId.pid)
+		  {
+			  pages.unpinPage(currentPageId, created ? UNPIN_DIRTY : UNPIN_CLEAN);
 		  }
 		  else
-		  {   // Load the next page
-			  Minibase.BufferManager.pinPage(nextPageId, nextPage, PIN_DISKIO);
+		  {
+			  dirty = created;
 		  }
 		  
-		  // Insert the entry into the next page
+		  pages.pinPage(nextPageId, nextPage, created ? PIN_MEMCPY : PIN_DISKIO);
 		  
-		  if (nextPage.insertEntry(entry) || true == dirty)
+		  if (nextPage.insertIntoPage(entry))
 		  {
-			  // Leave page unpinned dirty (page was dirtied by call to insertEntry or new page creation)
-			  Minibase.BufferManager.unpinPage(nextPageId, UNPIN_DIRTY);
+			  pages.unpinPage(nextPageId, UNPIN_DIRTY);
+			  return dirty;
 		  }
-		  else
+		  
+		  if (created)
 		  {
-			  // Leave page unpinned clean (page was not dirtied by call to insertEntry, or by new page creation)
-			  Minibase.BufferManager.unpinPage(nextPageId, UNPIN_CLEAN);
-		  }	  
+			  // Not even an empty page could take the entry
+			  pages.unpinPage(nextPageId, UNPIN_DIRTY);
+			  throw new IllegalStateException("insertEntry failed.  Entry too large for a page!");
+		  }
+		  
+		  currentPage = nextPage;
+		  currentPageId = nextPageId;
 	  }
 
-	  return dirty;
+  } // public boolean insertEntry(DataEntry entry, PageStore pages, PageAllocator allocator)
 
-  } // public boolean insertEntry(DataEntry entry)
+  /**
+   * Inserts a batch of data entries into the list from the given page on,
+   * walking the list once: each page is filled with as many of the remaining
+   * entries as fit before moving on to the next, and new pages are created at
+   * the end of the list as necessary.  The pages before the given one are not
+   * read, so starting at the page an earlier insert ended on costs the same
+   * however long the list is.  Only one page of the list is pinned at a time.
+   * <br><br>
+   * To insert a batch of data entries into a bucket, apply appendEntries to
+   * the primary page of the bucket or to any later page of it.  The given page
+   * id is moved on to the page the last entry went to.
+   * 
+   * @return the number of pages added to the end of the list
+   * @throws IllegalStateException if an entry is too large for a page
+   */
+  public static int appendEntries(PageId pageId, List<DataEntry> entries, PageStore pages, PageAllocator allocator) {
+	  
+	  // Fill the given page first
+	  PageId currentPageId = pageId;
+	  HashBucketPage currentPage = new HashBucketPage();
+	  pages.pinPage(currentPageId, currentPage, PIN_DISKIO);
+	  
+	  int inserted = currentPage.fillPage(entries, 0);
+	  boolean currentDirty = inserted > 0;
+	  int createdCount = 0;
+	  
+	  while (inserted < entries.size())
+	  {
+		  PageId nextPageId = currentPage.getNextPage();
+		  boolean created = false;
+		  
+		  if (INVALID_PAGEID == nextPageId.pid)
+		  {
+			  // There is no page after this one so we must create a new HashBucketPage
+			  nextPageId = allocator.allocatePage();
+			  currentPage.setNextPage(nextPageId);
+			  
+			  currentDirty = true;
+			  created = true;
+			  createdCount++;
+		  }
+		  
+		  // Done with the current page before loading the next one
+		  pages.unpinPage(currentPageId, currentDirty ? UNPIN_DIRTY : UNPIN_CLEAN);
+		  
+		  currentPageId = nextPageId;
+		  currentPage = new HashBucketPage();
+		  pages.pinPage(currentPageId, currentPage, created ? PIN_MEMCPY : PIN_DISKIO);
+		  
+		  // Fill the next page
+		  int filled = currentPage.fillPage(entries, inserted);
+		  
+		  if (created && filled == inserted)
+		  {
+			  // Not even an empty page could take the entry
+			  pages.unpinPage(currentPageId, UNPIN_DIRTY);
+			  throw new IllegalStateException("appendEntries failed.  Entry too large for a page!");
+		  }
+		  
+		  currentDirty = created || filled > inserted;
+		  inserted = filled;
+	  }
+	  
+	  pages.unpinPage(currentPageId, currentDirty ? UNPIN_DIRTY : UNPIN_CLEAN);
+	  
+	  pageId.pid = currentPageId.pid;
+	  
+	  return createdCount;
+
+  } // public static int appendEntries(PageId pageId, List<DataEntry> entries, PageStore pages, PageAllocator allocator)
+
+  /**
+   * Inserts entries into this page only, starting at the given index, until
+   * one of them does not fit.
+   * 
+   * @return the index of the first entry that was not inserted
+   */
+  protected int fillPage(List<DataEntry> entries, int from) {
+	  
+	  int i = from;
+	  
+	  while (i < entries.size() && insertIntoPage(entries.get(i)))
+	  {
+		  i++;
+	  }
+	  
+	  return i;
+
+  } // protected int fillPage(List<DataEntry> entries, int from)
 
   /**
-   * Deletes a data entry from this page.  If a page in the list 
-   * (not the primary page) becomes empty, it is deleted from the list.
+   * Inserts an entry into this page only, without going to later pages.  The
+   * free space is checked first, so a full page is passed over without the
+   * cost of building an exception.
+   * 
+   * @return true if the entry was inserted, false if this page does not have
+   * enough space for it
+   */
+  protected boolean insertIntoPage(DataEntry entry) {
+	  
+	  if (!hasSpaceFor(entry))
+	  {
+		  return false;
+	  }
+	  
+	  try
+	  {
+		  super.insertEntry(entry);
+		  return true;
+	  }
+	  catch (IllegalStateException e)
+	  {
+		  // The sorted page needed more space than we accounted for
+		  return false;
+	  }
+
+  } // protected boolean insertIntoPage(DataEntry entry)
+
+  /**
+   * Deletes a data entry from this page, or from the first later page of
+   * the list that holds it.  If a page in the list (not the primary page)
+   * becomes empty, it is deleted from the list.  The list is walked one
+   * page at a time, so besides this page only one later page is pinned at
+   * once, and every page is left unpinned when the entry is not found.
    * 
    * To delete a data entry from a bucket, apply deleteEntry to the
    * primary page of the bucket.
@@ -121,91 +264,387 @@ class HashBucketPage extends SortedPage {
    * @return true if deleting made this page dirty, false otherwise
    * @throws IllegalArgumentException if the entry is not in the list.
    */
-  public boolean deleteEntry(DataEntry entry) {
+  public boolean deleteEntry(DataEntry entry, PageStore pages) {
+	  return 0 != (deleteEntry(entry, INVALID_PAGEID, pages) & DELETE_DIRTY);
+  }
+
+  /**
+   * Deletes a data entry like deleteEntry(DataEntry, PageStore), except that
+   * the page with the given id stays in the list even if it becomes empty,
+   * since it is the page inserts into the bucket start at.
+   * 
+   * @return DELETE_DIRTY if deleting made this page dirty, plus DELETE_FREED
+   * if it emptied a later page, which was deleted from the list
+   * @throws IllegalArgumentException if the entry is not in the list.
+   */
+  public int deleteEntry(DataEntry entry, int keepPid, PageStore pages) {
 	  
-	  boolean dirty = false;
+	  // Try this page first
+	  if (deleteFromPage(entry))
+	  {
+		  return DELETE_DIRTY;
+	  }
 	  
-	  try
+	  PageId previousPageId = new PageId(INVALID_PAGEID);
+	  PageId currentPageId = getNextPage();
+	  
+	  while (INVALID_PAGEID != currentPageId.pid)
+	  {
+		  HashBucketPage currentPage = new HashBucketPage();
+		  pages.pinPage(currentPageId, currentPage, PIN_DISKIO);
+		  
+		  boolean deleted = currentPage.deleteFromPage(entry);
+		  PageId followingPageId = currentPage.getNextPage();
+		  
+		  if (deleted && 0 == currentPage.getEntryCount() && keepPid != currentPageId.pid)
+		  {
+			  // This left the page empty, so delete it and link its previous page past it
+			  pages.unpinPage(currentPageId, UNPIN_CLEAN);
+			  pages.freePage(currentPageId);
+			  
+			  if (INVALID_PAGEID == previousPageId.pid)
+			  {
+				  setNextPage(followingPageId);
+				  return DELETE_DIRTY | DELETE_FREED;
+			  }
+			  
+			  HashBucketPage previousPage = new HashBucketPage();
+			  pages.pinPage(previousPageId, previousPage, PIN_DISKIO);
+			  previousPage.setNextPage(followingPageId);
+			  pages.unpinPage(previousPageId, UNPIN_DIRTY);
+			  return DELETE_FREED;
+		  }
+		  
+		  pages.unpinPage(currentPageId, deleted ? UNPIN_DIRTY : UNPIN_CLEAN);
+		  
+		  if (deleted)
+		  {
+			  return 0;
+		  }
+		  
+		  previousPageId = currentPageId;
+		  currentPageId = followingPageId;
+	  }
+	  
+	  // The entry is nowhere on the list
+	  throw new IllegalArgumentException("deleteEntry failed.  Entry not found!");
+
+  } // public int deleteEntry(DataEntry entry, int keepPid, PageStore pages)
+
+  /**
+   * Deletes an entry from this page only, without going to later pages.  The
+   * entry is looked up first, so a page that does not hold it is passed over
+   * without the cost of building an exception.
+   * 
+   * @return true if the entry was deleted, false if it is not on this page
+   */
+  protected boolean deleteFromPage(DataEntry entry) {
+	  
+	  if (-1 == findEntry(entry))
+	  {
+		  return false;
+	  }
+	  
+	  super.deleteEntry(entry);
+	  return true;
+
+  } // protected boolean deleteFromPage(DataEntry entry)
+
+  /**
+   * Tells whether this page has enough free space for the given entry.
+   */
+  public boolean hasSpaceFor(DataEntry entry) {
+	  return getFreeSpace() >= entry.getLength() + ENTRY_OVERHEAD;
+  }
+
+  /**
+   * Gets the slot of the given entry (same key and RID) on this page only.
+   * 
+   * @return the slot of the entry, or -1 if it is not on this page
+   */
+  public int findEntry(DataEntry entry) {
+	  
+	  // Entries with the same key are adjacent, so only those need to be compared
+	  for (int slot = nextEntry(entry.key, -1); -1 != slot; slot = nextEntry(entry.key, slot))
+	  {
+		  if (getEntryAt(slot).equals(entry))
+		  {
+			  return slot;
+		  }
+	  }
+	  
+	  return -1;
+
+  } // public int findEntry(DataEntry entry)
+
+  /**
+   * Gets the slot of the next entry of this page with the given key, after the
+   * given slot (-1 to start at the beginning of the page).  Since a sorted page
+   * keeps its entries in key order, the first match is found by binary search
+   * and the matches that follow it are adjacent, so a lookup compares the full
+   * key against a logarithmic number of entries instead of every entry.
+   * 
+   * @return the slot of the entry, or -1 if there are no more matches
+   */
+  public int nextEntry(SearchKey key, int slot) {
+	  
+	  if (-1 != slot)
 	  {
-		  // Try to delete the entry from this page, if it throws an IllegalArgumentException, then
-		  // the entry is not on this page
-		  dirty = super.deleteEntry(entry);	
+		  // Any further match directly follows the previous one
+		  slot++;
+		  
+		  if (slot < getEntryCount() && 0 == getEntryAt(slot).key.compareTo(key))
+		  {
+			  return slot;
+		  }
+		  
+		  return -1;
 	  }
-	  catch (IllegalArgumentException e)
+	  
+	  // Find the first entry whose key is not smaller than the given key
+	  int low = 0;
+	  int high = getEntryCount();
+	  
+	  while (low < high)
 	  {
-		  // Entry is not on this page so attempt to delete from the next page
+		  int middle = (low + high) >>> 1;
 		  
-		  PageId nextPageId = new PageId();
-		  nextPageId = this.getNextPage();
+		  if (getEntryAt(middle).key.compareTo(key) < 0)
+		  {
+			  low = middle + 1;
+		  }
+		  else
+		  {
+			  high = middle;
+		  }
+	  }
+	  
+	  if (low < getEntryCount() && 0 == getEntryAt(low).key.compareTo(key))
+	  {
+		  return low;
+	  }
+	  
+	  return -1;
+
+  } // public int nextEntry(SearchKey key, int slot)
+
+  /**
+   * Gets the entries of this page and later (overflow) pages in the list.
+   * <br><br>
+   * To get the entries of a bucket, apply getEntries to the primary page of
+   * the bucket.
+   */
+  public ArrayList<DataEntry> getEntries(PageStore pages) {
+	  
+	  ArrayList<DataEntry> entries = new ArrayList<DataEntry>();
+	  PageId currentPageId = new PageId(INVALID_PAGEID);
+	  HashBucketPage currentPage = this;
+	  
+	  while (true)
+	  {
+		  for (int i = 0; i < currentPage.getEntryCount(); i++)
+		  {
+			  entries.add(currentPage.getEntryAt(i));
+		  }
 		  
-		  if (INVALID_PAGEID == nextPageId.pid) 	  
+		  PageId nextPageId = currentPage.getNextPage();
+		  
+		  if (INVALID_PAGEID != currentPageId.pid)
 		  {
-			  // There is no page after this one so we just throw an IllegalArgumentException
-			  // since the entry is nowhere on the list.
-			  // Note that this exception will not be caught by deleteEntry (intentional)
-			  // because it is not called from within the try block.
-			  throw new IllegalArgumentException("deleteEntry failed.  Entry not found!");
+			  // Leave the overflow page unpinned as we found it
+			  pages.unpinPage(currentPageId, UNPIN_CLEAN);
 		  }
 		  
-		  // Delete the entry from the next page
-	
-		  HashBucketPage nextPage = new HashBucketPage();
-		  Minibase.BufferManager.pinPage(nextPageId, nextPage, PIN_DISKIO);
+		  if (INVALID_PAGEID == nextPageId.pid)
+		  {
+			  break;
+		  }
 		  
-		  if (nextPage.deleteEntry(entry))
-		  {// nextPage ended up dirty after deleteEntry
-			  
-			  // If this left the next page empty, then we need to delete that page and update our next page Id
-			  if (0 == nextPage.getEntryCount())
-			  {
-				  this.setNextPage(nextPage.getNextPage());
-				  Minibase.BufferManager.unpinPage(nextPageId, UNPIN_CLEAN);				  
-				  Minibase.BufferManager.freePage(nextPageId);
-				  dirty = true;
-			  }
-			  else
-			  {
-				  // Leave page unpinned dirty (page was dirtied by call to deleteEntry)
-				  Minibase.BufferManager.unpinPage(nextPageId, UNPIN_DIRTY);
-			  }
-		  }// nextPage ended up clean after deleteEntry
+		  // Load the next page
+		  currentPageId = nextPageId;
+		  currentPage = new HashBucketPage();
+		  pages.pinPage(currentPageId, currentPage, PIN_DISKIO);
+	  }
+	  
+	  return entries;
+
+  } // public ArrayList<DataEntry> getEntries(PageStore pages)
+
+  /**
+   * Moves every entry of this page and later (overflow) pages in the list
+   * whose key hashes to the given value at the given depth into the target
+   * page (which chains its own overflow pages as needed).  The entries that
+   * stay are repacked from this page on, so the list keeps no partly empty
+   * overflow pages behind.
+   * <br><br>
+   * To split a bucket, apply moveEntries to the primary page of the bucket.
+   * 
+   * @return true if moving entries made this page dirty, false otherwise
+   */
+  public boolean moveEntries(HashBucketPage target, int depth, int hashValue, PageStore pages, PageAllocator allocator) {
+	  
+	  // Gather the entries from the whole list before changing any page
+	  ArrayList<DataEntry> entries = getEntries(pages);
+	  
+	  if (entries.isEmpty())
+	  {
+		  return false;
+	  }
+	  
+	  // Empty the list down to this page
+	  deleteNextPages(pages);
+	  setNextPage(new PageId(INVALID_PAGEID));
+	  
+	  while (getEntryCount() > 0)
+	  {
+		  super.deleteEntry(getEntryAt(0));
+	  }
+	  
+	  // Send each entry to its bucket
+	  for (DataEntry entry : entries)
+	  {
+		  if (hashValue == entry.key.getHash(depth))
+		  {
+			  target.insertEntry(entry, pages, allocator);
+		  }
 		  else
 		  {
-			  // Leave page unpinned clean (page was not dirtied by call to deleteEntry)
-			  Minibase.BufferManager.unpinPage(nextPageId, UNPIN_CLEAN);
-		  }	 		    
+			  insertEntry(entry, pages, allocator);
+		  }
+	  }
+	  
+	  return true;
+
+  } // public boolean moveEntries(HashBucketPage target, int depth, int hashValue, PageStore pages, PageAllocator allocator)
+
+  /**
+   * Repacks the entries of this page and later (overflow) pages in the list
+   * into as few pages as they fit in, freeing the pages left over.  The caller
+   * gives the entries of the whole list, as read by getEntries, and its number
+   * of pages, so the list is not read again.  The entries are packed into
+   * scratch pages first, and lists that would not get strictly shorter are
+   * left untouched.
+   * <br><br>
+   * To compact a bucket, apply compactEntries to the primary page of the bucket.
+   * 
+   * @return the number of pages freed, which is also whether the list was
+   * rewritten and this page is dirty
+   */
+  public int compactEntries(List<DataEntry> entries, int pageCount, PageStore pages, PageAllocator allocator) {
+	  
+	  // No packing can fit the entries in fewer pages than their total size takes
+	  int entryBytes = 0;
+	  
+	  for (DataEntry entry : entries)
+	  {
+		  entryBytes += entry.getLength() + ENTRY_OVERHEAD;
+	  }
+	  
+	  if (Math.max(1, (entryBytes + PAGE_BYTES - 1) / PAGE_BYTES) >= pageCount)
+	  {
+		  return 0;
+	  }
+	  
+	  // That bound is not always reached, so only rewrite a list the packing really shortens
+	  if (countPackedPages(entries) >= pageCount)
+	  {
+		  return 0;
+	  }
+	  
+	  // Empty the list down to this page
+	  deleteNextPages(pages);
+	  setNextPage(new PageId(INVALID_PAGEID));
+	  
+	  while (getEntryCount() > 0)
+	  {
+		  super.deleteEntry(getEntryAt(0));
+	  }
+	  
+	  // Refill this page, then chain as many new pages as the rest takes
+	  int inserted = fillPage(entries, 0);
+	  int newPageCount = 1;
+	  HashBucketPage currentPage = this;
+	  PageId currentPageId = new PageId(INVALID_PAGEID);
+	  
+	  while (inserted < entries.size())
+	  {
+		  PageId nextPageId = allocator.allocatePage();
+		  currentPage.setNextPage(nextPageId);
+		  
+		  if (INVALID_PAGEID != currentPageId.pid)
+		  {
+			  pages.unpinPage(currentPageId, UNPIN_DIRTY);
+		  }
+		  
+		  currentPageId = nextPageId;
+		  currentPage = new HashBucketPage();
+		  pages.pinPage(currentPageId, currentPage, PIN_MEMCPY);
+		  
+		  inserted = currentPage.fillPage(entries, inserted);
+		  newPageCount++;
+	  }
+	  
+	  if (INVALID_PAGEID != currentPageId.pid)
+	  {
+		  pages.unpinPage(currentPageId, UNPIN_DIRTY);
 	  }
-	  return dirty;
+	  
+	  return pageCount - newPageCount;
 
-  } // public boolean deleteEntry(DataEntry entry)
+  } // public int compactEntries(List<DataEntry> entries, int pageCount, PageStore pages, PageAllocator allocator)
 
   /**
-   * Deletes the next pages after this one.  
+   * Gets the number of pages that packing the given entries in order, the way
+   * compactEntries does, would take.  The packing is done on scratch pages,
+   * which are not allocated.
+   *
+   * @throws IllegalStateException if an entry is too large for a page
+   */
+  protected static int countPackedPages(List<DataEntry> entries) {
+	  
+	  int packed = new HashBucketPage().fillPage(entries, 0);
+	  int packedPageCount = 1;
+	  
+	  while (packed < entries.size())
+	  {
+		  int filled = new HashBucketPage().fillPage(entries, packed);
+		  
+		  if (filled == packed)
+		  {
+			  throw new IllegalStateException("countPackedPages failed.  Entry too large for a page!");
+		  }
+		  
+		  packed = filled;
+		  packedPageCount++;
+	  }
+	  
+	  return packedPageCount;
+
+  } // protected static int countPackedPages(List<DataEntry> entries)
+
+  /**
+   * Deletes the next pages after this one, one page at a time.
    * 
    * To delete all the bucket pages after the primary , apply deleteNextPages to the
    * primary page of the bucket.
    * 
    */
-  public void deleteNextPages() {
+  public void deleteNextPages(PageStore pages) {
 	  
-	  HashBucketPage nextPage = new HashBucketPage();
 	  PageId nextPageId = this.getNextPage();
 	  
-	  if (INVALID_PAGEID != nextPageId.pid)
+	  while (INVALID_PAGEID != nextPageId.pid)
 	  {
-		  // We have another page after this one, so check that page to see if it has another page
-		  Minibase.BufferManager.pinPage(nextPageId, nextPage, PIN_DISKIO);
+		  // Read the link to the following page before freeing the next one
+		  HashBucketPage nextPage = new HashBucketPage();
+		  pages.pinPage(nextPageId, nextPage, PIN_DISKIO);
+		  PageId followingPageId = nextPage.getNextPage();
 		  
-		  if (INVALID_PAGEID != nextPage.getNextPage().pid)
-		  {
-			  // There is another page after the next, so call deleteNextPages on the next page
-			  nextPage.deleteNextPages();
-		  }
-		  // Downstream pages (if any) should have been deleted by now so go ahead and delete the next page
-		  Minibase.BufferManager.unpinPage(nextPageId, UNPIN_CLEAN);
-		  Minibase.BufferManager.freePage(nextPageId);  
+		  pages.unpinPage(nextPageId, UNPIN_CLEAN);
+		  pages.freePage(nextPageId);
+		  nextPageId = followingPageId;
 	  } 		    
 
-  } // public boolean deleteEntry(DataEntry entry)
+  } // public void deleteNextPages(PageStore pages)
   
 } // class HashBucketPage extends SortedPage
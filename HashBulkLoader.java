@@ -0,0 +1,486 @@
+package index;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import global.GlobalConst;
+import global.PageId;
+import global.RID;
+import global.SearchKey;
+
+/**
+ * Builds a static HashIndex bottom-up from a stream of (key, RID) pairs,
+ * instead of inserting them one at a time.  Entries are partitioned by the
+ * hash value of their key, and each partition is packed into an in-memory
+ * HashBucketPage.  Whenever a partition fills its page, the page is spilled
+ * to disk as the new head of that bucket's overflow chain, so every page is
+ * written exactly once, fully packed, and the loader never holds more than
+ * one page of entries per bucket.  The directory is written once, by finish,
+ * which also hands it the Bloom filter, the entry count and the chain length
+ * of every bucket, so the new index does not have to read its buckets again.
+ * <br><br>
+ * When the loader finishes, the partly filled page of each bucket becomes
+ * its primary page, which leaves room for later inserts.
+ * <br><br>
+ * A batch can also be loaded in parallel on a ForkJoinPool: the buckets are
+ * split into contiguous ranges, each owned by one task, which builds the
+ * chains of its buckets on its own, pinning pages through the page store
+ * from several threads at once.  A parallel load therefore requires a page
+ * store and allocator that are safe for concurrent use, as PageStore and
+ * PageAllocator ask of every implementation: MemoryStorage locks each page,
+ * and MinibaseStorage runs one call at a time through the Minibase managers.
+ */
+public class HashBulkLoader implements GlobalConst {
+
+	// Number of bucket ranges per worker thread of a parallel load, so that
+	// workers done with their ranges can steal ranges from busier ones
+	protected static final int RANGES_PER_WORKER = 4;
+
+	// Phases of a parallel load, run one after the other over every range
+	protected static final int ROUTE_PHASE = 0;
+	protected static final int FILL_PHASE = 1;
+	protected static final int WRITE_PHASE = 2;
+
+	/** File name of the index being built. */
+	protected String fileName;
+
+	/** Store through which the index's pages are written. */
+	protected final PageStore pages;
+
+	/** Allocator through which the index's pages are allocated. */
+	protected final PageAllocator allocator;
+
+	/** Log2 of the number of primary buckets. */
+	protected int depth;
+
+	/** Page being filled for each bucket, null until an entry hashes there. */
+	protected HashBucketPage[] fillPages;
+
+	/** Page id of the head of each bucket's spilled chain. */
+	protected int[] chainIds;
+
+	/** Bloom filter of each bucket, null until an entry hashes there. */
+	protected HashFilter[] filters;
+
+	/** Number of entries, and of pages written or being filled, of each bucket. */
+	protected int[] entryCounts;
+	protected int[] chainLengths;
+
+	/** Whether finish has been called. */
+	protected boolean finished;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Starts building a new index file with 2^depth primary buckets; a null name
+   * builds a temporary index file.  Use HashIndex.depthForCardinality to size
+   * the index from the expected number of entries.
+   *
+   * @throws IllegalArgumentException if the depth is out of range or an index
+   * file with the given name already exists
+   */
+  public HashBulkLoader(String fileName, int depth) {
+	  this(fileName, depth, MinibaseStorage.DEFAULT, MinibaseStorage.DEFAULT);
+  }
+
+  /**
+   * Starts building a new index file like HashBulkLoader(String, int), in the
+   * given page store and allocator instead of the Minibase database.
+   *
+   * @throws IllegalArgumentException if the depth is out of range or an index
+   * file with the given name already exists
+   */
+  public HashBulkLoader(String fileName, int depth, PageStore pages, PageAllocator allocator) {
+
+	  if (depth < 0 || depth > HashDirectory.MAX_DEPTH)
+	  {
+		  throw new IllegalArgumentException("A hash index depth must be between 0 and " + HashDirectory.MAX_DEPTH + "!");
+	  }
+
+	  if (null != fileName && null != allocator.getFileEntry(fileName))
+	  {
+		  throw new IllegalArgumentException("The index file " + fileName + " already exists!");
+	  }
+
+	  this.fileName = fileName;
+	  this.pages = pages;
+	  this.allocator = allocator;
+	  this.depth = depth;
+	  fillPages = new HashBucketPage[1 << depth];
+	  chainIds = new int[1 << depth];
+	  filters = new HashFilter[1 << depth];
+	  entryCounts = new int[1 << depth];
+	  chainLengths = new int[1 << depth];
+
+	  for (int i = 0; i < chainIds.length; i++)
+	  {
+		  chainIds[i] = INVALID_PAGEID;
+	  }
+
+  } // public HashBulkLoader(String fileName, int depth, PageStore pages, PageAllocator allocator)
+
+  /**
+   * Adds a data entry to the index being built.
+   *
+   * @throws IllegalArgumentException if the entry is too large
+   * @throws IllegalStateException if the loader has already finished
+   */
+  public void add(SearchKey key, RID rid) {
+
+	  if (finished)
+	  {
+		  throw new IllegalStateException("The bulk load has already finished!");
+	  }
+
+	  if (key.getLength() > HashBucketPage.MAX_ENTRY_SIZE)
+	  {
+		  throw new IllegalArgumentException("Attempted to insert an entry that is too large!");
+	  }
+
+	  DataEntry entry = new DataEntry(key, rid);
+	  int bucket = key.getHash(depth);
+	  entryCounts[bucket]++;
+
+	  if (null == fillPages[bucket])
+	  {
+		  fillPages[bucket] = new HashBucketPage();
+		  filters[bucket] = new HashFilter(0);
+		  chainLengths[bucket]++;
+	  }
+	  filters[bucket].add(key);
+
+	  if (!fillPages[bucket].insertIntoPage(entry))
+	  {
+		  // The partition filled its page, so spill it and start a new one
+		  chainIds[bucket] = writePage(fillPages[bucket], chainIds[bucket]);
+		  fillPages[bucket] = new HashBucketPage();
+		  fillPages[bucket].insertIntoPage(entry);
+		  chainLengths[bucket]++;
+	  }
+
+  } // public void add(SearchKey key, RID rid)
+
+  /**
+   * Adds a batch of data entries to the index being built, the i-th entry
+   * being made of keys[i] and rids[i].
+   *
+   * @throws IllegalArgumentException if the arrays have different lengths or
+   * an entry is too large
+   * @throws IllegalStateException if the loader has already finished
+   */
+  public void addAll(SearchKey[] keys, RID[] rids) {
+
+	  if (keys.length != rids.length)
+	  {
+		  throw new IllegalArgumentException("Attempted to load a batch with " + keys.length + " keys and " + rids.length + " rids!");
+	  }
+
+	  for (int i = 0; i < keys.length; i++)
+	  {
+		  add(keys[i], rids[i]);
+	  }
+
+  } // public void addAll(SearchKey[] keys, RID[] rids)
+
+  /**
+   * Adds a batch of data entries to the index being built like addAll, but on
+   * the threads of the given pool.  The batch is split into chunks, and each
+   * chunk's entries are routed by the hash value of their key to the range of
+   * buckets they belong to.  Then every range is filled by one task from the
+   * entries routed to it, in batch order, so the buckets end up exactly as a
+   * sequential load would leave them.  The tasks allocate and write pages
+   * at the same time, so the page store and allocator of the loader must be
+   * safe for concurrent use.
+   *
+   * @throws IllegalArgumentException if the arrays have different lengths or
+   * an entry is too large, in which case no entry is added
+   * @throws IllegalStateException if the loader has already finished
+   */
+  public void addAll(SearchKey[] keys, RID[] rids, ForkJoinPool pool) {
+
+	  if (keys.length != rids.length)
+	  {
+		  throw new IllegalArgumentException("Attempted to load a batch with " + keys.length + " keys and " + rids.length + " rids!");
+	  }
+
+	  if (finished)
+	  {
+		  throw new IllegalStateException("The bulk load has already finished!");
+	  }
+
+	  for (int i = 0; i < keys.length; i++)
+	  {
+		  if (keys[i].getLength() > HashBucketPage.MAX_ENTRY_SIZE)
+		  {
+			  throw new IllegalArgumentException("Attempted to insert an entry that is too large!");
+		  }
+	  }
+
+	  ParallelLoad load = new ParallelLoad(keys, rids, pool);
+	  load.run(ROUTE_PHASE);
+	  load.run(FILL_PHASE);
+
+  } // public void addAll(SearchKey[] keys, RID[] rids, ForkJoinPool pool)
+
+  /**
+   * Writes the last page of every bucket as its primary page, then writes the
+   * directory and opens the finished index.
+   *
+   * @throws IllegalStateException if the loader has already finished
+   */
+  public HashIndex finish() {
+
+	  if (finished)
+	  {
+		  throw new IllegalStateException("The bulk load has already finished!");
+	  }
+	  finished = true;
+
+	  int[] primaryIds = new int[fillPages.length];
+	  writeBuckets(0, fillPages.length, primaryIds);
+
+	  return openIndex(primaryIds);
+
+  } // public HashIndex finish()
+
+  /**
+   * Finishes the load like finish, writing the last page of the buckets of
+   * each range on the threads of the given pool, so the page store and
+   * allocator of the loader must be safe for concurrent use.
+   *
+   * @throws IllegalStateException if the loader has already finished
+   */
+  public HashIndex finish(ForkJoinPool pool) {
+
+	  if (finished)
+	  {
+		  throw new IllegalStateException("The bulk load has already finished!");
+	  }
+	  finished = true;
+
+	  ParallelLoad load = new ParallelLoad(null, null, pool);
+	  load.run(WRITE_PHASE);
+
+	  return openIndex(load.primaryIds);
+
+  } // public HashIndex finish(ForkJoinPool pool)
+
+  /**
+   * Writes the last page of every bucket from the given one up to (not
+   * including) the end one as its primary page, recording its page id.
+   */
+  protected void writeBuckets(int from, int to, int[] primaryIds) {
+
+	  for (int i = from; i < to; i++)
+	  {
+		  primaryIds[i] = INVALID_PAGEID;
+
+		  if (null != fillPages[i])
+		  {
+			  // The partly filled page heads the bucket, followed by its spilled chain
+			  primaryIds[i] = writePage(fillPages[i], chainIds[i]);
+			  fillPages[i] = null;
+		  }
+	  }
+
+  } // protected void writeBuckets(int from, int to, int[] primaryIds)
+
+  /**
+   * Writes the directory once every bucket is in place, and opens the index.
+   */
+  protected HashIndex openIndex(int[] primaryIds) {
+
+	  HashDirectory directory = HashDirectory.create(pages, allocator, HashDirectory.STATIC_SCHEME, depth, 1 << depth);
+	  directory.setBucketIds(primaryIds, entryCounts, chainLengths, filters);
+
+	  return new HashIndex(fileName, directory);
+
+  } // protected HashIndex openIndex(int[] primaryIds)
+
+  /**
+   * Writes an in-memory bucket page to a newly allocated page, linking it in
+   * front of the given chain.
+   *
+   * @return the page id the page was written to
+   */
+  protected int writePage(HashBucketPage page, int nextPid) {
+
+	  page.setNextPage(new PageId(nextPid));
+
+	  PageId pageId = allocator.allocatePage();
+	  pages.pinPage(pageId, page, PIN_MEMCPY);
+	  pages.unpinPage(pageId, UNPIN_DIRTY);
+
+	  return pageId.pid;
+
+  } // protected int writePage(HashBucketPage page, int nextPid)
+
+  /**
+   * A load of a batch on a ForkJoinPool.  The buckets are split into
+   * contiguous ranges, a power of two of them, and the batch into as many
+   * chunks.  Every phase runs one task per range (or chunk), and a task only
+   * touches the buckets of its own range, so the tasks share nothing but the
+   * page store.
+   */
+  protected class ParallelLoad {
+
+	  /** Batch being loaded, null when only writing the buckets. */
+	  protected SearchKey[] keys;
+	  protected RID[] rids;
+
+	  /** Pool running the tasks. */
+	  protected ForkJoinPool pool;
+
+	  /** Number of bucket ranges, and of batch chunks. */
+	  protected int rangeCount;
+
+	  /** Number of low hash bits that select a bucket within its range. */
+	  protected int rangeShift;
+
+	  /** Positions in the batch of each chunk's entries, ordered by range. */
+	  protected int[][] chunkOrders;
+
+	  /** Start of each range in each chunk's order, with the chunk's end last. */
+	  protected int[][] chunkStarts;
+
+	  /** Page id of the primary page of each bucket, once written. */
+	  protected int[] primaryIds;
+
+	// ------------------------------------------------------------------------
+
+	/**
+	 * Splits the buckets into about RANGES_PER_WORKER ranges per thread of the pool.
+	 */
+	protected ParallelLoad(SearchKey[] keys, RID[] rids, ForkJoinPool pool) {
+
+		this.keys = keys;
+		this.rids = rids;
+		this.pool = pool;
+
+		int rangeBits = 0;
+
+		while (rangeBits < depth && (1 << rangeBits) < pool.getParallelism() * RANGES_PER_WORKER)
+		{
+			rangeBits++;
+		}
+
+		rangeCount = 1 << rangeBits;
+		rangeShift = depth - rangeBits;
+		chunkOrders = new int[rangeCount][];
+		chunkStarts = new int[rangeCount][];
+		primaryIds = new int[fillPages.length];
+
+	} // protected ParallelLoad(SearchKey[] keys, RID[] rids, ForkJoinPool pool)
+
+	/**
+	 * Runs a phase over every range, returning once all of them are done.
+	 */
+	protected void run(int phase) {
+		pool.invoke(new RangeTask(phase, 0, rangeCount));
+	}
+
+	/**
+	 * Orders the entries of a chunk of the batch by the range of their bucket,
+	 * keeping their batch order within each range.
+	 */
+	protected void routeChunk(int chunk) {
+
+		int begin = (int) ((long) keys.length * chunk / rangeCount);
+		int end = (int) ((long) keys.length * (chunk + 1) / rangeCount);
+
+		// Count the entries of each range
+		int[] ranges = new int[end - begin];
+		int[] starts = new int[rangeCount + 1];
+
+		for (int i = begin; i < end; i++)
+		{
+			ranges[i - begin] = keys[i].getHash(depth) >>> rangeShift;
+			starts[ranges[i - begin] + 1]++;
+		}
+
+		for (int r = 0; r < rangeCount; r++)
+		{
+			starts[r + 1] += starts[r];
+		}
+
+		// Place each entry after the ones of its range seen before
+		int[] order = new int[end - begin];
+		int[] next = starts.clone();
+
+		for (int i = begin; i < end; i++)
+		{
+			order[next[ranges[i - begin]]++] = i;
+		}
+
+		chunkOrders[chunk] = order;
+		chunkStarts[chunk] = starts;
+
+	} // protected void routeChunk(int chunk)
+
+	/**
+	 * Adds the entries routed to a range by every chunk, in batch order.
+	 */
+	protected void fillRange(int range) {
+
+		for (int chunk = 0; chunk < rangeCount; chunk++)
+		{
+			for (int j = chunkStarts[chunk][range]; j < chunkStarts[chunk][range + 1]; j++)
+			{
+				int i = chunkOrders[chunk][j];
+				add(keys[i], rids[i]);
+			}
+		}
+
+	} // protected void fillRange(int range)
+
+	/**
+	 * Runs a phase for the ranges (or chunks) from the given one up to (not
+	 * including) the end one, splitting them in halves down to one per task.
+	 */
+	protected class RangeTask extends RecursiveAction {
+
+		// Tasks are never serialized, but RecursiveAction is Serializable
+		private static final long serialVersionUID = 1L;
+
+		/** Phase being run. */
+		protected int phase;
+
+		/** Ranges of the task. */
+		protected int from;
+		protected int to;
+
+		protected RangeTask(int phase, int from, int to) {
+			this.phase = phase;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+
+			if (to - from > 1)
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new RangeTask(phase, from, middle), new RangeTask(phase, middle, to));
+				return;
+			}
+
+			switch (phase)
+			{
+				case ROUTE_PHASE:
+					routeChunk(from);
+					break;
+				case FILL_PHASE:
+					fillRange(from);
+					break;
+				default:
+					writeBuckets(from << rangeShift, (from + 1) << rangeShift, primaryIds);
+					break;
+			}
+
+		} // protected void compute()
+
+	} // protected class RangeTask extends RecursiveAction
+
+  } // protected class ParallelLoad
+
+} // public class HashBulkLoader implements GlobalConst
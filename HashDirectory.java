@@ -0,0 +1,908 @@
+package index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import global.GlobalConst;
+import global.PageId;
+import global.Page;
+import global.SearchKey;
+
+/**
+ * The directory of a hash index file.  It is made of a header page, which
+ * records the layout of the directory, and a list of directory pages, which
+ * hold one slot per primary bucket.  Since the slots span as many directory
+ * pages as the header page can reference, the number of buckets is not capped
+ * by the size of a single page.
+ * <br><br>
+ * The header page (at the index file's head id) stores:
+ * <pre>
+ * depth | next | slot count | resize head id | resize next | directory page count | scheme | directory page ids ... | count page ids ...
+ * </pre>
+ * Each directory page stores SLOTS_PER_PAGE slots of:
+ * <pre>
+ * bucket page id | local depth
+ * </pre>
+ * and has a count page next to it, which stores the same slots as:
+ * <pre>
+ * entry count | chain length
+ * </pre>
+ * The scheme field tells which hashing scheme created the directory, so an
+ * index file is never opened by another one, and the depth, next and local
+ * depth fields are interpreted by that scheme.  While the index is being resized, the resize head
+ * id references the header page of the directory being migrated to, and
+ * resize next is the number of slots already migrated.  The header fields are
+ * kept in memory and written through to the header page whenever they change.
+ * <br><br>
+ * The slots are decoded into memory as well when the directory is opened, so
+ * looking up a bucket does not pin any directory page.  Changed slots are
+ * written through to their directory page.  Every HashIndex open on the same
+ * index file shares one directory through HashIndexFile, so the copy is never
+ * stale.
+ * <br><br>
+ * The entry count and chain length of a slot are the number of entries of
+ * its bucket and the number of pages of its chain.  They are decoded from the
+ * count pages when the directory is opened and written through when they
+ * change, so the size of an index is known without reading its buckets.  A
+ * slot that references a bucket with a chain length of 0 has counts that are
+ * not known yet, which are read from the bucket's chain when next needed.
+ * <br><br>
+ * The directory also keeps some facts about the bucket of each slot that are
+ * only kept in memory: the insert page id references the page of the
+ * bucket's chain that the last insert went to, so the next insert starts
+ * there instead of at the primary page; and the filter is a HashFilter of the
+ * keys inserted into the bucket, so a lookup of a key that is definitely
+ * absent does not read any bucket page.  Deleted keys leave their bits set,
+ * which only costs false positives until the filter is rebuilt, and a filter
+ * that grew over MAX_FILTER_PARTS parts is rebuilt from the bucket's chain,
+ * sized for its keys, before it takes more.  These facts are read from the
+ * bucket's chain the first time they are needed after the directory is
+ * opened, or after the slot is made to reference another bucket; until then
+ * the slot is not loaded, and mayContain answers true for any key.  Loading a
+ * slot reads its bucket, so the methods that may load one are called with the
+ * bucket latched exclusively (or the structure latch held exclusively).
+ */
+class HashDirectory implements GlobalConst {
+
+	// Int size in bytes, used to compute offsets
+	protected static final int INT_SIZE = 4;
+
+	// Offsets of the header page fields
+	protected static final int DEPTH_OFFSET = 0;
+	protected static final int NEXT_OFFSET = INT_SIZE;
+	protected static final int SLOT_COUNT_OFFSET = 2 * INT_SIZE;
+	protected static final int RESIZE_HEAD_ID_OFFSET = 3 * INT_SIZE;
+	protected static final int RESIZE_NEXT_OFFSET = 4 * INT_SIZE;
+	protected static final int PAGE_COUNT_OFFSET = 5 * INT_SIZE;
+	protected static final int SCHEME_OFFSET = 6 * INT_SIZE;
+	protected static final int PAGE_IDS_OFFSET = 7 * INT_SIZE;
+
+	// The number of directory page ids that fit in the header page, each with the id of its count page
+	protected static final int MAX_PAGES = (PAGE_SIZE - PAGE_IDS_OFFSET) / (2 * INT_SIZE);
+
+	// Offset of the count page ids in the header page, after room for every directory page id
+	protected static final int COUNT_PAGE_IDS_OFFSET = PAGE_IDS_OFFSET + MAX_PAGES * INT_SIZE;
+
+	// Offsets of the fields of a slot, relative to the start of the slot
+	protected static final int BUCKET_ID_OFFSET = 0;
+	protected static final int LOCAL_DEPTH_OFFSET = INT_SIZE;
+
+	// Offsets of the counts of a slot in a count page, relative to the start of the slot
+	protected static final int ENTRY_COUNT_OFFSET = 0;
+	protected static final int CHAIN_LENGTH_OFFSET = INT_SIZE;
+
+	// Number of parts a slot's filter may grow to before it is rebuilt
+	protected static final int MAX_FILTER_PARTS = 3;
+
+	// Size of a slot in bytes
+	protected static final int SLOT_SIZE = 2 * INT_SIZE;
+
+	// The number of slots that fit in a directory page
+	protected static final int SLOTS_PER_PAGE = PAGE_SIZE / SLOT_SIZE;
+
+	/** The largest number of slots a directory can have. */
+	public static final int MAX_SLOTS = MAX_PAGES * SLOTS_PER_PAGE;
+
+	/** The largest depth whose 2^depth slots fit in a directory. */
+	public static final int MAX_DEPTH = 31 - Integer.numberOfLeadingZeros(MAX_SLOTS);
+
+	/** Scheme field of a directory created by a static HashIndex. */
+	public static final int STATIC_SCHEME = 1;
+
+	/** Scheme field of a directory created by an ExtendibleHashIndex. */
+	public static final int EXTENDIBLE_SCHEME = 2;
+
+	/** Scheme field of a directory created by a LinearHashIndex. */
+	public static final int LINEAR_SCHEME = 3;
+
+	/** Store through which the directory pages are pinned, unpinned and freed. */
+	protected final PageStore pages;
+
+	/** Allocator through which the directory pages are allocated. */
+	protected final PageAllocator allocator;
+
+	/** Page id of the header page. */
+	protected PageId headId;
+
+	/** Hashing scheme that created the directory. */
+	protected int scheme;
+
+	/**
+	 * Depth of the hashing scheme.  It is written after the slots it selects
+	 * have been grown into, so a lookup that reads it without a latch only
+	 * hashes to slots that exist in the arrays it reads next.
+	 */
+	protected volatile int depth;
+
+	/** Split pointer of the hashing scheme. */
+	protected int next;
+
+	/** Number of slots in use. */
+	protected int slotCount;
+
+	/** Page id of the header page of the directory being resized to. */
+	protected int resizeHeadId;
+
+	/** Number of slots already migrated to the directory being resized to. */
+	protected int resizeNext;
+
+	/** Page ids of the directory pages. */
+	protected int[] pageIds;
+
+	/** Page ids of the count pages, one for each directory page. */
+	protected int[] countPageIds;
+
+	/** Decoded bucket page ids of every slot of the directory pages. */
+	protected int[] bucketIds;
+
+	/** Decoded local depths of every slot of the directory pages. */
+	protected int[] localDepths;
+
+	/** Whether the insert page id and filter of each slot are loaded. */
+	protected boolean[] loaded;
+
+	/** Insert page ids of every slot of the directory pages. */
+	protected int[] insertIds;
+
+	/** Entry counts of every slot of the directory pages. */
+	protected int[] entryCounts;
+
+	/** Chain lengths of every slot of the directory pages. */
+	protected int[] chainLengths;
+
+	/** Bloom filters of every slot of the directory pages, null for empty slots. */
+	protected HashFilter[] filters;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Opens the directory whose header page is at the given page id, in the
+   * given page store and allocator.
+   */
+  public HashDirectory(PageStore pages, PageAllocator allocator, PageId headId) {
+
+	  this.pages = pages;
+	  this.allocator = allocator;
+	  this.headId = headId;
+
+	  // Load the header page and read the layout of the directory
+	  Page headerPage = new Page();
+	  pages.pinPage(headId, headerPage, PIN_DISKIO);
+
+	  depth = headerPage.getIntValue(DEPTH_OFFSET);
+	  next = headerPage.getIntValue(NEXT_OFFSET);
+	  slotCount = headerPage.getIntValue(SLOT_COUNT_OFFSET);
+	  resizeHeadId = headerPage.getIntValue(RESIZE_HEAD_ID_OFFSET);
+	  resizeNext = headerPage.getIntValue(RESIZE_NEXT_OFFSET);
+	  scheme = headerPage.getIntValue(SCHEME_OFFSET);
+	  pageIds = new int[headerPage.getIntValue(PAGE_COUNT_OFFSET)];
+	  countPageIds = new int[pageIds.length];
+
+	  for (int i = 0; i < pageIds.length; i++)
+	  {
+		  pageIds[i] = headerPage.getIntValue(PAGE_IDS_OFFSET + i * INT_SIZE);
+		  countPageIds[i] = headerPage.getIntValue(COUNT_PAGE_IDS_OFFSET + i * INT_SIZE);
+	  }
+
+	  pages.unpinPage(headId, UNPIN_CLEAN);
+
+	  // Decode the slots of every directory page
+	  bucketIds = new int[pageIds.length * SLOTS_PER_PAGE];
+	  localDepths = new int[pageIds.length * SLOTS_PER_PAGE];
+	  loaded = new boolean[pageIds.length * SLOTS_PER_PAGE];
+	  insertIds = new int[pageIds.length * SLOTS_PER_PAGE];
+	  entryCounts = new int[pageIds.length * SLOTS_PER_PAGE];
+	  chainLengths = new int[pageIds.length * SLOTS_PER_PAGE];
+	  filters = new HashFilter[pageIds.length * SLOTS_PER_PAGE];
+
+	  for (int i = 0; i < pageIds.length; i++)
+	  {
+		  PageId directoryPageId = new PageId(pageIds[i]);
+		  Page directoryPage = new Page();
+		  pages.pinPage(directoryPageId, directoryPage, PIN_DISKIO);
+
+		  for (int slot = 0; slot < SLOTS_PER_PAGE; slot++)
+		  {
+			  bucketIds[i * SLOTS_PER_PAGE + slot] = directoryPage.getIntValue(slot * SLOT_SIZE + BUCKET_ID_OFFSET);
+			  localDepths[i * SLOTS_PER_PAGE + slot] = directoryPage.getIntValue(slot * SLOT_SIZE + LOCAL_DEPTH_OFFSET);
+		  }
+
+		  pages.unpinPage(directoryPageId, UNPIN_CLEAN);
+
+		  PageId countPageId = new PageId(countPageIds[i]);
+		  Page countPage = new Page();
+		  pages.pinPage(countPageId, countPage, PIN_DISKIO);
+
+		  for (int slot = 0; slot < SLOTS_PER_PAGE; slot++)
+		  {
+			  entryCounts[i * SLOTS_PER_PAGE + slot] = countPage.getIntValue(slot * SLOT_SIZE + ENTRY_COUNT_OFFSET);
+			  chainLengths[i * SLOTS_PER_PAGE + slot] = countPage.getIntValue(slot * SLOT_SIZE + CHAIN_LENGTH_OFFSET);
+		  }
+
+		  pages.unpinPage(countPageId, UNPIN_CLEAN);
+	  }
+
+	  // Only the slots without a bucket are known to be empty until their bucket is read
+	  Arrays.fill(insertIds, INVALID_PAGEID);
+
+	  for (int slot = 0; slot < bucketIds.length; slot++)
+	  {
+		  loaded[slot] = INVALID_PAGEID == bucketIds[slot];
+	  }
+
+  } // public HashDirectory(PageStore pages, PageAllocator allocator, PageId headId)
+
+  /**
+   * Creates a new directory of the given hashing scheme, with the given depth
+   * and number of slots, in the given page store and allocator, whose slots do
+   * not reference any bucket yet.
+   *
+   * @throws IllegalArgumentException if the number of slots is too large
+   */
+  public static HashDirectory create(PageStore pages, PageAllocator allocator, int scheme, int depth, int slotCount) {
+
+	  // Allocate and save an empty header page, then grow the directory to size
+	  Page headerPage = new Page();
+	  PageId headId = allocator.allocatePage();
+	  headerPage.setIntValue(scheme, SCHEME_OFFSET);
+	  headerPage.setIntValue(depth, DEPTH_OFFSET);
+	  headerPage.setIntValue(INVALID_PAGEID, RESIZE_HEAD_ID_OFFSET);
+
+	  pages.pinPage(headId, headerPage, PIN_MEMCPY);
+	  pages.unpinPage(headId, UNPIN_DIRTY);
+
+	  HashDirectory directory = new HashDirectory(pages, allocator, headId);
+	  directory.grow(slotCount);
+
+	  return directory;
+
+  } // public static HashDirectory create(PageStore pages, PageAllocator allocator, int scheme, int depth, int slotCount)
+
+  /**
+   * Frees the header page and all of the directory and count pages.  The bucket pages
+   * referenced by the slots must be freed by the caller.
+   */
+  public void free() {
+
+	  for (int i = 0; i < pageIds.length; i++)
+	  {
+		  pages.freePage(new PageId(pageIds[i]));
+		  pages.freePage(new PageId(countPageIds[i]));
+	  }
+	  pages.freePage(headId);
+
+	  pageIds = new int[0];
+	  countPageIds = new int[0];
+	  bucketIds = new int[0];
+	  localDepths = new int[0];
+	  loaded = new boolean[0];
+	  insertIds = new int[0];
+	  entryCounts = new int[0];
+	  chainLengths = new int[0];
+	  filters = new HashFilter[0];
+	  slotCount = 0;
+
+  } // public void free()
+
+  /**
+   * Takes over the layout of the given directory, which the index has been
+   * resized to, in a single write of the header page.  The directory and count
+   * pages of this directory and the header page of the given directory are freed, and
+   * the resize fields are cleared.
+   */
+  public void replaceWith(HashDirectory resized) {
+
+	  int[] oldPageIds = pageIds;
+	  int[] oldCountPageIds = countPageIds;
+
+	  // Switch over to the resized layout, publishing the depth last
+	  next = resized.next;
+	  slotCount = resized.slotCount;
+	  pageIds = resized.pageIds;
+	  countPageIds = resized.countPageIds;
+	  bucketIds = resized.bucketIds;
+	  localDepths = resized.localDepths;
+	  loaded = resized.loaded;
+	  insertIds = resized.insertIds;
+	  entryCounts = resized.entryCounts;
+	  chainLengths = resized.chainLengths;
+	  filters = resized.filters;
+	  depth = resized.depth;
+	  resizeHeadId = INVALID_PAGEID;
+	  resizeNext = 0;
+	  writeHeader();
+
+	  // Free the pages that are no longer referenced
+	  for (int i = 0; i < oldPageIds.length; i++)
+	  {
+		  pages.freePage(new PageId(oldPageIds[i]));
+		  pages.freePage(new PageId(oldCountPageIds[i]));
+	  }
+	  pages.freePage(resized.headId);
+
+  } // public void replaceWith(HashDirectory resized)
+
+  /**
+   * Gets the page id of the header page.
+   */
+  public PageId getHeadId() {
+	  return headId;
+  }
+
+  /**
+   * Gets the hashing scheme that created the directory, one of the _SCHEME
+   * constants.
+   */
+  public int getScheme() {
+	  return scheme;
+  }
+
+  /**
+   * Gets the depth of the hashing scheme.
+   */
+  public int getDepth() {
+	  return depth;
+  }
+
+  /**
+   * Sets the depth of the hashing scheme.
+   */
+  public void setDepth(int depth) {
+	  this.depth = depth;
+	  writeHeader();
+  }
+
+  /**
+   * Gets the split pointer of the hashing scheme.
+   */
+  public int getNext() {
+	  return next;
+  }
+
+  /**
+   * Sets the split pointer of the hashing scheme.
+   */
+  public void setNext(int next) {
+	  this.next = next;
+	  writeHeader();
+  }
+
+  /**
+   * Gets the page id of the header page of the directory being resized to,
+   * which is invalid if the index is not being resized.
+   */
+  public int getResizeHeadId() {
+	  return resizeHeadId;
+  }
+
+  /**
+   * Sets the page id of the header page of the directory being resized to.
+   */
+  public void setResizeHeadId(int resizeHeadId) {
+	  this.resizeHeadId = resizeHeadId;
+	  writeHeader();
+  }
+
+  /**
+   * Gets the number of slots already migrated to the directory being resized to.
+   */
+  public int getResizeNext() {
+	  return resizeNext;
+  }
+
+  /**
+   * Sets the number of slots already migrated to the directory being resized to.
+   */
+  public void setResizeNext(int resizeNext) {
+	  this.resizeNext = resizeNext;
+	  writeHeader();
+  }
+
+  /**
+   * Gets the number of slots in use.
+   */
+  public int getSlotCount() {
+	  return slotCount;
+  }
+
+  /**
+   * Grows the directory to the given number of slots, allocating directory
+   * and count pages as needed.  The new slots do not reference any bucket.
+   *
+   * @throws IllegalArgumentException if the number of slots is too large
+   */
+  public void grow(int newSlotCount) {
+
+	  if (newSlotCount > MAX_SLOTS)
+	  {
+		  throw new IllegalArgumentException("A hash directory can not have more than " + MAX_SLOTS + " slots!");
+	  }
+
+	  int newPageCount = (newSlotCount + SLOTS_PER_PAGE - 1) / SLOTS_PER_PAGE;
+
+	  if (newPageCount > pageIds.length)
+	  {
+		  int[] newPageIds = new int[newPageCount];
+		  int[] newCountPageIds = new int[newPageCount];
+		  System.arraycopy(pageIds, 0, newPageIds, 0, pageIds.length);
+		  System.arraycopy(countPageIds, 0, newCountPageIds, 0, countPageIds.length);
+
+		  for (int i = pageIds.length; i < newPageCount; i++)
+		  {
+			  // Allocate the directory page, every slot of it starts without a bucket
+			  Page directoryPage = new Page();
+			  PageId directoryPageId = allocator.allocatePage();
+
+			  for (int slot = 0; slot < SLOTS_PER_PAGE; slot++)
+			  {
+				  directoryPage.setIntValue(INVALID_PAGEID, slot * SLOT_SIZE + BUCKET_ID_OFFSET);
+				  directoryPage.setIntValue(0, slot * SLOT_SIZE + LOCAL_DEPTH_OFFSET);
+			  }
+
+			  pages.pinPage(directoryPageId, directoryPage, PIN_MEMCPY);
+			  pages.unpinPage(directoryPageId, UNPIN_DIRTY);
+
+			  newPageIds[i] = directoryPageId.pid;
+
+			  // Allocate its count page, every count of it starts at 0
+			  Page countPage = new Page();
+			  PageId countPageId = allocator.allocatePage();
+
+			  for (int offset = 0; offset < PAGE_SIZE; offset += INT_SIZE)
+			  {
+				  countPage.setIntValue(0, offset);
+			  }
+
+			  pages.pinPage(countPageId, countPage, PIN_MEMCPY);
+			  pages.unpinPage(countPageId, UNPIN_DIRTY);
+
+			  newCountPageIds[i] = countPageId.pid;
+		  }
+
+		  pageIds = newPageIds;
+		  countPageIds = newCountPageIds;
+
+		  // Extend the decoded slots to match
+		  int[] newBucketIds = new int[newPageCount * SLOTS_PER_PAGE];
+		  int[] newLocalDepths = new int[newPageCount * SLOTS_PER_PAGE];
+		  boolean[] newLoaded = new boolean[newPageCount * SLOTS_PER_PAGE];
+		  int[] newInsertIds = new int[newPageCount * SLOTS_PER_PAGE];
+		  int[] newEntryCounts = new int[newPageCount * SLOTS_PER_PAGE];
+		  int[] newChainLengths = new int[newPageCount * SLOTS_PER_PAGE];
+		  HashFilter[] newFilters = new HashFilter[newPageCount * SLOTS_PER_PAGE];
+		  System.arraycopy(bucketIds, 0, newBucketIds, 0, bucketIds.length);
+		  System.arraycopy(localDepths, 0, newLocalDepths, 0, localDepths.length);
+		  System.arraycopy(loaded, 0, newLoaded, 0, loaded.length);
+		  System.arraycopy(insertIds, 0, newInsertIds, 0, insertIds.length);
+		  System.arraycopy(entryCounts, 0, newEntryCounts, 0, entryCounts.length);
+		  System.arraycopy(chainLengths, 0, newChainLengths, 0, chainLengths.length);
+		  System.arraycopy(filters, 0, newFilters, 0, filters.length);
+		  Arrays.fill(newBucketIds, bucketIds.length, newBucketIds.length, INVALID_PAGEID);
+		  Arrays.fill(newLoaded, loaded.length, newLoaded.length, true);
+		  Arrays.fill(newInsertIds, insertIds.length, newInsertIds.length, INVALID_PAGEID);
+
+		  bucketIds = newBucketIds;
+		  localDepths = newLocalDepths;
+		  loaded = newLoaded;
+		  insertIds = newInsertIds;
+		  entryCounts = newEntryCounts;
+		  chainLengths = newChainLengths;
+		  filters = newFilters;
+	  }
+
+	  if (newSlotCount > slotCount)
+	  {
+		  slotCount = newSlotCount;
+		  writeHeader();
+	  }
+
+  } // public void grow(int newSlotCount)
+
+  /**
+   * Gets the page id of the primary bucket page of a slot, which is invalid if
+   * that bucket has not been allocated yet.
+   */
+  public int getBucketId(int slot) {
+	  return bucketIds[slot];
+  }
+
+  /**
+   * Sets the page id of the primary bucket page of a slot.  A slot that
+   * references another bucket forgets what it knew of the old one, and is
+   * loaded from the new one when next needed.
+   */
+  public void setBucketId(int slot, int pid) {
+
+	  if (bucketIds[slot] != pid)
+	  {
+		  bucketIds[slot] = pid;
+		  writeSlot(slot, BUCKET_ID_OFFSET, pid);
+		  unload(slot);
+	  }
+
+  } // public void setBucketId(int slot, int pid)
+
+  /**
+   * Sets the page ids of the primary bucket pages, the entry counts, the chain
+   * lengths and the Bloom filters of the first slots at once, writing each
+   * directory and count page a single time, and marks those slots loaded.
+   * The filter of a slot without entries may be null.
+   */
+  public void setBucketIds(int[] pids, int[] slotEntryCounts, int[] slotChainLengths, HashFilter[] slotFilters) {
+
+	  for (int i = 0; i * SLOTS_PER_PAGE < pids.length; i++)
+	  {
+		  PageId directoryPageId = new PageId(pageIds[i]);
+		  Page directoryPage = new Page();
+		  pages.pinPage(directoryPageId, directoryPage, PIN_DISKIO);
+
+		  PageId countPageId = new PageId(countPageIds[i]);
+		  Page countPage = new Page();
+		  pages.pinPage(countPageId, countPage, PIN_DISKIO);
+
+		  for (int slot = i * SLOTS_PER_PAGE; slot < pids.length && slot < (i + 1) * SLOTS_PER_PAGE; slot++)
+		  {
+			  bucketIds[slot] = pids[slot];
+			  loaded[slot] = true;
+			  insertIds[slot] = INVALID_PAGEID;
+			  entryCounts[slot] = slotEntryCounts[slot];
+			  chainLengths[slot] = slotChainLengths[slot];
+			  filters[slot] = slotFilters[slot];
+			  directoryPage.setIntValue(pids[slot], (slot % SLOTS_PER_PAGE) * SLOT_SIZE + BUCKET_ID_OFFSET);
+			  countPage.setIntValue(slotEntryCounts[slot], (slot % SLOTS_PER_PAGE) * SLOT_SIZE + ENTRY_COUNT_OFFSET);
+			  countPage.setIntValue(slotChainLengths[slot], (slot % SLOTS_PER_PAGE) * SLOT_SIZE + CHAIN_LENGTH_OFFSET);
+		  }
+
+		  pages.unpinPage(countPageId, UNPIN_DIRTY);
+		  pages.unpinPage(directoryPageId, UNPIN_DIRTY);
+	  }
+
+  } // public void setBucketIds(int[] pids, int[] slotEntryCounts, int[] slotChainLengths, HashFilter[] slotFilters)
+
+  /**
+   * Gets the page id of the page of a slot's bucket that inserts start at,
+   * which is invalid if inserts start at the primary page.
+   */
+  public int getInsertPageId(int slot) {
+
+	  load(slot);
+
+	  return insertIds[slot];
+
+  } // public int getInsertPageId(int slot)
+
+  /**
+   * Sets the page id of the page of a slot's bucket that inserts start at.
+   * Whatever frees that page from the bucket's chain must reset it first.
+   */
+  public void setInsertPageId(int slot, int pid) {
+
+	  load(slot);
+	  insertIds[slot] = pid;
+
+  } // public void setInsertPageId(int slot, int pid)
+
+  /**
+   * Gets the number of entries of the bucket of a slot.
+   */
+  public int getEntryCount(int slot) {
+
+	  if (!hasCounts(slot))
+	  {
+		  load(slot);
+	  }
+
+	  return entryCounts[slot];
+
+  } // public int getEntryCount(int slot)
+
+  /**
+   * Gets the number of pages in the chain of the bucket of a slot, 0 if it has
+   * no primary page.
+   */
+  public int getChainLength(int slot) {
+
+	  if (!hasCounts(slot))
+	  {
+		  load(slot);
+	  }
+
+	  return chainLengths[slot];
+
+  } // public int getChainLength(int slot)
+
+  /**
+   * Sets the entry count and the chain length of the bucket of a slot, and
+   * writes them through to its count page.
+   */
+  public void setCounts(int slot, int entryCount, int chainLength) {
+
+	  load(slot);
+	  writeCounts(slot, entryCount, chainLength);
+
+  } // public void setCounts(int slot, int entryCount, int chainLength)
+
+  /**
+   * Adds to the entry count and the chain length of the bucket of a slot.
+   */
+  public void addToCounts(int slot, int entryDelta, int chainDelta) {
+
+	  load(slot);
+	  writeCounts(slot, entryCounts[slot] + entryDelta, chainLengths[slot] + chainDelta);
+
+  } // public void addToCounts(int slot, int entryDelta, int chainDelta)
+
+  /**
+   * Tells whether the counts of a slot are known, either from its count page
+   * or from its bucket's chain, so reading them does not load the slot.
+   */
+  public boolean hasCounts(int slot) {
+	  return INVALID_PAGEID == bucketIds[slot] || chainLengths[slot] > 0;
+  }
+
+  /**
+   * Tells whether the insert page id and filter of a slot are loaded.
+   */
+  public boolean isLoaded(int slot) {
+	  return loaded[slot];
+  }
+
+  /**
+   * Loads the insert page id, counts and filter of a slot from its bucket's
+   * chain, unless they are loaded already.  Inserts start at the primary page
+   * until the next insert finds the end of the chain.
+   */
+  public void load(int slot) {
+
+	  if (loaded[slot])
+	  {
+		  return;
+	  }
+
+	  ArrayList<SearchKey> keys = new ArrayList<SearchKey>();
+	  int chainLength = readKeys(slot, keys);
+
+	  insertIds[slot] = INVALID_PAGEID;
+	  writeCounts(slot, keys.size(), chainLength);
+	  filters[slot] = buildFilter(keys);
+	  loaded[slot] = true;
+
+  } // public void load(int slot)
+
+  /**
+   * Forgets the insert page id, counts and filter of a slot, once its bucket's
+   * chain has been rewritten, so they are loaded again when next needed; the
+   * counts are written through as not known.  A slot without a bucket stays
+   * loaded, since it is known to be empty.
+   */
+  public void unload(int slot) {
+
+	  insertIds[slot] = INVALID_PAGEID;
+	  writeCounts(slot, 0, 0);
+	  filters[slot] = null;
+	  loaded[slot] = INVALID_PAGEID == bucketIds[slot];
+
+  } // public void unload(int slot)
+
+  /**
+   * Gets the local depth of the bucket of a slot.
+   */
+  public int getLocalDepth(int slot) {
+	  return localDepths[slot];
+  }
+
+  /**
+   * Sets the local depth of the bucket of a slot.
+   */
+  public void setLocalDepth(int slot, int localDepth) {
+
+	  if (localDepths[slot] != localDepth)
+	  {
+		  localDepths[slot] = localDepth;
+		  writeSlot(slot, LOCAL_DEPTH_OFFSET, localDepth);
+	  }
+
+  } // public void setLocalDepth(int slot, int localDepth)
+
+  /**
+   * Tells whether a key may have been inserted into the bucket of a slot.  A
+   * false answer is definite, a true answer may be a false positive.  A slot
+   * that is not loaded may contain any key; a lookup that finds it so latches
+   * its bucket exclusively and loads it.
+   */
+  public boolean mayContain(int slot, SearchKey key) {
+
+	  if (!loaded[slot])
+	  {
+		  return true;
+	  }
+
+	  return null != filters[slot] && filters[slot].mayContain(key);
+
+  } // public boolean mayContain(int slot, SearchKey key)
+
+  /**
+   * Adds the keys of a batch of entries to the Bloom filter of a slot.  The
+   * entries are not in the bucket's chain yet, so a filter that grew over too
+   * many parts is rebuilt from the chain before they are added.
+   */
+  public void addToFilter(int slot, List<DataEntry> entries) {
+
+	  load(slot);
+
+	  if (null != filters[slot] && filters[slot].getPartCount() >= MAX_FILTER_PARTS)
+	  {
+		  ArrayList<SearchKey> keys = new ArrayList<SearchKey>();
+		  readKeys(slot, keys);
+		  filters[slot] = buildFilter(keys);
+	  }
+
+	  if (null == filters[slot])
+	  {
+		  filters[slot] = new HashFilter(entries.size());
+	  }
+
+	  for (DataEntry entry : entries)
+	  {
+		  filters[slot].add(entry.key);
+	  }
+
+  } // public void addToFilter(int slot, List<DataEntry> entries)
+
+  /**
+   * Replaces the Bloom filter of a slot with one of the given keys, to drop the
+   * bits of keys that have been deleted or moved to another bucket.
+   */
+  public void rebuildFilter(int slot, List<DataEntry> entries) {
+
+	  load(slot);
+
+	  ArrayList<SearchKey> keys = new ArrayList<SearchKey>(entries.size());
+
+	  for (DataEntry entry : entries)
+	  {
+		  keys.add(entry.key);
+	  }
+
+	  filters[slot] = buildFilter(keys);
+
+  } // public void rebuildFilter(int slot, List<DataEntry> entries)
+
+  /**
+   * Reads the keys of every entry of the chain of a slot's bucket.
+   *
+   * @return the number of pages of the chain
+   */
+  protected int readKeys(int slot, List<SearchKey> keys) {
+
+	  int chainLength = 0;
+	  PageId pageId = new PageId(bucketIds[slot]);
+
+	  while (INVALID_PAGEID != pageId.pid)
+	  {
+		  HashBucketPage page = new HashBucketPage();
+		  pages.pinPage(pageId, page, PIN_DISKIO);
+
+		  chainLength++;
+
+		  for (int i = 0; i < page.getEntryCount(); i++)
+		  {
+			  keys.add(page.getEntryAt(i).key);
+		  }
+
+		  PageId nextPageId = page.getNextPage();
+		  pages.unpinPage(pageId, UNPIN_CLEAN);
+		  pageId = nextPageId;
+	  }
+
+	  return chainLength;
+
+  } // protected int readKeys(int slot, List<SearchKey> keys)
+
+  /**
+   * Builds a Bloom filter sized for the given keys, or null if there are none.
+   */
+  protected static HashFilter buildFilter(List<SearchKey> keys) {
+
+	  if (keys.isEmpty())
+	  {
+		  return null;
+	  }
+
+	  HashFilter filter = new HashFilter(keys.size());
+
+	  for (SearchKey key : keys)
+	  {
+		  filter.add(key);
+	  }
+
+	  return filter;
+
+  } // protected static HashFilter buildFilter(List<SearchKey> keys)
+
+  /**
+   * Writes a field of a slot through to its directory page.
+   */
+  protected void writeSlot(int slot, int fieldOffset, int value) {
+
+	  PageId directoryPageId = new PageId(pageIds[slot / SLOTS_PER_PAGE]);
+	  Page directoryPage = new Page();
+
+	  pages.pinPage(directoryPageId, directoryPage, PIN_DISKIO);
+	  directoryPage.setIntValue(value, (slot % SLOTS_PER_PAGE) * SLOT_SIZE + fieldOffset);
+	  pages.unpinPage(directoryPageId, UNPIN_DIRTY);
+
+  } // protected void writeSlot(int slot, int fieldOffset, int value)
+
+  /**
+   * Sets the counts of a slot, writing them through to its count page if they
+   * changed.
+   */
+  protected void writeCounts(int slot, int entryCount, int chainLength) {
+
+	  if (entryCounts[slot] == entryCount && chainLengths[slot] == chainLength)
+	  {
+		  return;
+	  }
+
+	  entryCounts[slot] = entryCount;
+	  chainLengths[slot] = chainLength;
+
+	  PageId countPageId = new PageId(countPageIds[slot / SLOTS_PER_PAGE]);
+	  Page countPage = new Page();
+
+	  pages.pinPage(countPageId, countPage, PIN_DISKIO);
+	  countPage.setIntValue(entryCount, (slot % SLOTS_PER_PAGE) * SLOT_SIZE + ENTRY_COUNT_OFFSET);
+	  countPage.setIntValue(chainLength, (slot % SLOTS_PER_PAGE) * SLOT_SIZE + CHAIN_LENGTH_OFFSET);
+	  pages.unpinPage(countPageId, UNPIN_DIRTY);
+
+  } // protected void writeCounts(int slot, int entryCount, int chainLength)
+
+  /**
+   * Writes the in-memory header fields through to the header page.
+   */
+  protected void writeHeader() {
+
+	  Page headerPage = new Page();
+	  pages.pinPage(headId, headerPage, PIN_DISKIO);
+
+	  headerPage.setIntValue(depth, DEPTH_OFFSET);
+	  headerPage.setIntValue(next, NEXT_OFFSET);
+	  headerPage.setIntValue(slotCount, SLOT_COUNT_OFFSET);
+	  headerPage.setIntValue(resizeHeadId, RESIZE_HEAD_ID_OFFSET);
+	  headerPage.setIntValue(resizeNext, RESIZE_NEXT_OFFSET);
+	  headerPage.setIntValue(pageIds.length, PAGE_COUNT_OFFSET);
+	  headerPage.setIntValue(scheme, SCHEME_OFFSET);
+
+	  for (int i = 0; i < pageIds.length; i++)
+	  {
+		  headerPage.setIntValue(pageIds[i], PAGE_IDS_OFFSET + i * INT_SIZE);
+		  headerPage.setIntValue(countPageIds[i], COUNT_PAGE_IDS_OFFSET + i * INT_SIZE);
+	  }
+
+	  pages.unpinPage(headId, UNPIN_DIRTY);
+
+  } // protected void writeHeader()
+
+} // class HashDirectory implements GlobalConst
@@ -0,0 +1,142 @@
+package index;
+
+import global.SearchKey;
+
+/**
+ * A Bloom filter of the keys of one hash bucket, which grows with the bucket
+ * so that it does not saturate.  A filter is sized for the number of keys it
+ * is built with, at BITS_PER_KEY bits per key, which keeps its false positive
+ * rate under 2% while it holds that many keys.  Once more keys are added, a
+ * new part GROWTH times as large is started for the following keys, and a
+ * key may be contained if any part says so.  The false positive rate of a
+ * filter is at most the sum of those of its parts, so a bucket whose filter
+ * grew over many parts is best given a new filter sized for its keys, which
+ * HashDirectory does whenever it loads a slot, rebuilds its filter, or finds
+ * that it grew over HashDirectory.MAX_FILTER_PARTS parts.
+ * <br><br>
+ * A filter is not synchronized: it is changed under the exclusive latch of
+ * its bucket, and only read under the shared one.
+ */
+class HashFilter {
+
+	// Number of filter bits per key a part is sized for, and number of bits set per key
+	protected static final int BITS_PER_KEY = 10;
+	protected static final int HASHES = 3;
+
+	// Number of bits of the smallest part, and how many times larger each new part is
+	protected static final int MIN_BITS = 64;
+	protected static final int GROWTH = 4;
+
+	/** Bits of each part, as ints of 32 bits; keys are added to the last one. */
+	protected int[][] parts;
+
+	/** Number of keys added to the last part. */
+	protected int lastKeyCount;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Creates an empty filter sized for the given number of keys.
+   */
+  public HashFilter(int keyCount) {
+
+	  int bits = MIN_BITS;
+
+	  while (bits < keyCount * BITS_PER_KEY)
+	  {
+		  bits *= 2;
+	  }
+
+	  parts = new int[][] { new int[bits / 32] };
+
+  } // public HashFilter(int keyCount)
+
+  /**
+   * Adds a key to the filter, starting a new part first if the last one holds
+   * as many keys as it was sized for.
+   */
+  public void add(SearchKey key) {
+
+	  int[] last = parts[parts.length - 1];
+
+	  if (lastKeyCount >= last.length * 32 / BITS_PER_KEY)
+	  {
+		  int[][] newParts = new int[parts.length + 1][];
+		  System.arraycopy(parts, 0, newParts, 0, parts.length);
+		  last = new int[last.length * GROWTH];
+		  newParts[parts.length] = last;
+
+		  parts = newParts;
+		  lastKeyCount = 0;
+	  }
+
+	  long hash = mix(key);
+
+	  for (int i = 0; i < HASHES; i++)
+	  {
+		  int bit = getBit(hash, i, last.length * 32);
+		  last[bit / 32] |= 1 << (bit % 32);
+	  }
+	  lastKeyCount++;
+
+  } // public void add(SearchKey key)
+
+  /**
+   * Tells whether a key may have been added to the filter.  A false answer is
+   * definite, a true answer may be a false positive.
+   */
+  public boolean mayContain(SearchKey key) {
+
+	  long hash = mix(key);
+
+	  for (int[] part : parts)
+	  {
+		  boolean contained = true;
+
+		  for (int i = 0; i < HASHES && contained; i++)
+		  {
+			  int bit = getBit(hash, i, part.length * 32);
+			  contained = 0 != (part[bit / 32] & (1 << (bit % 32)));
+		  }
+
+		  if (contained)
+		  {
+			  return true;
+		  }
+	  }
+
+	  return false;
+
+  } // public boolean mayContain(SearchKey key)
+
+  /**
+   * Gets the number of parts of the filter.
+   */
+  public int getPartCount() {
+	  return parts.length;
+  }
+
+  /**
+   * Mixes the whole hash value of a key into 64 bits.  The keys of a bucket
+   * share their low hash bits, so every bit of the result must depend on
+   * every bit of the hash value (the finalizer of MurmurHash3).
+   */
+  protected static long mix(SearchKey key) {
+
+	  long hash = key.getHash(31);
+	  hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+	  hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+
+	  return hash ^ (hash >>> 33);
+
+  } // protected static long mix(SearchKey key)
+
+  /**
+   * Gets the i-th bit of a mixed hash value in a part of the given number of
+   * bits, a power of 2, from the two halves of the value (double hashing).
+   */
+  protected static int getBit(long hash, int i, int bits) {
+	  return ((int) (hash >>> 32) + i * ((int) hash | 1)) & (bits - 1);
+  }
+
+} // class HashFilter
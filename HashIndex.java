@@ -1,35 +1,97 @@
 package index;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
 import global.GlobalConst;
-import global.Minibase;
 import global.PageId;
 import global.RID;
 import global.SearchKey;
-import global.Page;
 
 /**
  * <h3>Minibase Hash Index</h3>
  * This unclustered index implements static hashing as described on pages 371 to
  * 373 of the textbook (3rd edition).  The index file is a stored as a heapfile.  
+ * <br><br>
+ * The bucket page ids are kept in a HashDirectory, which subclasses reuse
+ * for dynamic hashing schemes by overriding getSlot and getSlotDepth.
+ * <br><br>
+ * Operations on different buckets run in parallel.  Every operation holds the
+ * structure latch in shared mode while it uses the directory, and the latch of
+ * the bucket it works on: shared for lookups, exclusive for inserts, deletes
+ * and compaction.  Bucket latches are striped over the directory slots.
+ * Splits, resizes and deleting the file hold the structure latch exclusively,
+ * since they change which bucket a key hashes to.  Scans read their bucket
+ * optimistically, checking the stamps of both latches instead of holding them.
+ * The directory and the latches belong to the open HashIndexFile, which every
+ * HashIndex open on the same index file shares.
  */
 public class HashIndex implements GlobalConst {
 	
 	// Int size in bytes, used to compute offsets 
 	protected static final int INT_SIZE = 4;	
 	
-	// The number of primary bucket pages	
-	protected static final int BUCKETS_AMOUNT = 128;
+	// Log2 of the number of primary bucket pages when no depth is given (128 buckets)
+	protected static final int DEFAULT_DEPTH = 7;
+
+	// The number of entries a primary bucket page is sized for by depthForCardinality
+	protected static final int ENTRIES_PER_BUCKET = 32;
+
+	// The number of bucket latches the directory slots are striped over
+	protected static final int LATCH_STRIPES = 64;
+
+	// The number of times a lookup walks a bucket optimistically before latching it
+	protected static final int OPTIMISTIC_ATTEMPTS = 3;
+
+	// The longest a writer parks waiting for optimistic readers before counting them again, in nanoseconds
+	protected static final long READER_WAIT_NANOS = 1000000L;
 
 	/** File name of the hash index. */
 	protected String fileName;
 
-	/** Page id of the directory. */
+	/** Store through which the index's pages are pinned, unpinned and freed. */
+	protected final PageStore pages;
+
+	/** Allocator through which the index's pages are allocated and its file is found by name. */
+	protected final PageAllocator allocator;
+
+	/** Page id of the directory's header page. */
 	protected PageId headId;
-  
-	//Log2 of the number of buckets - fixed for this simple index
-	protected final int  DEPTH = 7;
-	
-	
+
+	/** Open file shared with every other HashIndex on the same index file. */
+	protected final HashIndexFile file;
+
+	/** Directory of the primary bucket pages, the open file's. */
+	protected HashDirectory directory;
+
+	/** Time of the last insert or lookup, in milliseconds. */
+	protected volatile long lastAccessTime;
+
+	/** Background worker compacting the index's buckets, or null. */
+	protected volatile HashMaintenanceWorker maintenanceWorker;
+
+	/** Lock under which maintenance workers attach and detach, private so callers can not hold it. */
+	private final Object maintenanceLock = new Object();
+
+	/** Latch on the directory's layout, exclusive while buckets are split or migrated; the open file's. */
+	protected final StampedLock structureLatch;
+
+	/** Latches on the buckets, the bucket of slot i using latch i % LATCH_STRIPES; the open file's. */
+	protected final StampedLock[] bucketLatches;
+
+	/** Number of optimistic readers walking the buckets of each latch; the open file's. */
+	protected final LongAdder[] optimisticReaders;
+
+	/** Writer parked until the optimistic readers of each latch are done, or null; the open file's. */
+	protected final AtomicReferenceArray<Thread> readerWaiters;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -38,63 +100,194 @@ public class HashIndex implements GlobalConst {
    * no file library entry and whose pages are freed when there are no more
    * references to it.
    * The file's directory contains the locations of the 128 primary bucket pages.
-   * You will need to decide on a structure for the directory.
    * The library entry contains the name of the index file and the pageId of the
-   * file's directory.
+   * header page of the file's directory.
    */
   public HashIndex(String fileName) {
+	  this(fileName, DEFAULT_DEPTH);
+  }
+
+  /**
+   * Opens an index file given its name, or creates a new index file with 2^depth
+   * primary bucket pages if the name doesn't exist.  The depth is stored in the
+   * directory's header page, so an existing index file keeps the depth it was
+   * created with and the given depth is ignored.  Dynamic hashing schemes use
+   * the depth as their initial depth.  The index file lives in the open
+   * Minibase database.
+   * 
+   * @throws IllegalArgumentException if the depth is negative or larger than
+   * HashDirectory.MAX_DEPTH, or if the index file exists but was created by
+   * another hashing scheme
+   */
+  public HashIndex(String fileName, int depth) {
+	  this(fileName, depth, MinibaseStorage.DEFAULT, MinibaseStorage.DEFAULT);
+  }
+
+  /**
+   * Opens or creates an index file like HashIndex(String, int), in the given
+   * page store and allocator instead of the Minibase database.  They are
+   * usually the same object, and an index file must always be opened in the
+   * storage it was created in.
+   * 
+   * @throws IllegalArgumentException if the depth is negative or larger than
+   * HashDirectory.MAX_DEPTH, or if the index file exists but was created by
+   * another hashing scheme
+   */
+  public HashIndex(String fileName, int depth, PageStore pages, PageAllocator allocator) {
+	  
+	  if (depth < 0 || depth > HashDirectory.MAX_DEPTH)
+	  {
+		  throw new IllegalArgumentException("A hash index depth must be between 0 and " + HashDirectory.MAX_DEPTH + "!");
+	  }
 	  
 	  this.fileName = fileName;
+	  this.pages = pages;
+	  this.allocator = allocator;
 
 	  if (null != fileName)
 	  {
-		  PageId pageId = Minibase.DiskManager.get_file_entry(fileName); 
+		  PageId pageId = allocator.getFileEntry(fileName); 
 		  
 		  if (null != pageId)
 		  {
-			  headId = pageId;
+			  // Share the file with any other HashIndex that has it open
+			  file = HashIndexFile.open(pages, allocator, pageId);
+			  directory = file.directory;
+			  headId = directory.getHeadId();
+			  
+			  if (directory.getScheme() != getScheme())
+			  {
+				  // Another scheme would read the directory's depths its own way
+				  throw new IllegalArgumentException("The index file " + fileName + " was created by another hashing scheme!");
+			  }
 		  }
 		  else
 		  {
-			  CreateEmptyHashIndexFile();
+			  CreateEmptyHashIndexFile(depth);
+			  file = HashIndexFile.register(directory);
 		  }
 	  }
 	  else // Temporary HashIndex
 	  {
-		  CreateEmptyHashIndexFile();
-	  }	  
-  } // public HashIndex(String fileName)
+		  CreateEmptyHashIndexFile(depth);
+		  file = new HashIndexFile(directory);
+	  }
+	  
+	  structureLatch = file.structureLatch;
+	  bucketLatches = file.bucketLatches;
+	  optimisticReaders = file.optimisticReaders;
+	  readerWaiters = file.readerWaiters;
+
+  } // public HashIndex(String fileName, int depth, PageStore pages, PageAllocator allocator)
+
+  /**
+   * Opens a new index file over a directory that has already been filled in,
+   * adding its library entry unless the index is temporary.  The index uses
+   * the page store and allocator of the directory.  Used by HashBulkLoader.
+   */
+  protected HashIndex(String fileName, HashDirectory directory) {
+	  
+	  this.fileName = fileName;
+	  this.pages = directory.pages;
+	  this.allocator = directory.allocator;
+	  this.directory = directory;
+	  headId = directory.getHeadId();
+	  
+	  if (null != fileName && fileName.length() > 0)
+	  {
+		  // Only add the file entry when we don't have a temporary file
+		  allocator.addFileEntry(fileName, headId);
+		  file = HashIndexFile.register(directory);
+	  }
+	  else
+	  {
+		  file = new HashIndexFile(directory);
+	  }
+	  
+	  structureLatch = file.structureLatch;
+	  bucketLatches = file.bucketLatches;
+	  optimisticReaders = file.optimisticReaders;
+	  readerWaiters = file.readerWaiters;
+
+  } // protected HashIndex(String fileName, HashDirectory directory)
+
+  /**
+   * Gets the smallest depth whose primary bucket pages can hold the expected
+   * number of entries without overflow pages, for use with the HashIndex
+   * constructor.  Small tables get few buckets and big ones get enough buckets
+   * to avoid long overflow chains.
+   */
+  public static int depthForCardinality(long expectedEntries) {
+	  
+	  int depth = 0;
+	  
+	  while (depth < HashDirectory.MAX_DEPTH && ((long) ENTRIES_PER_BUCKET << depth) < expectedEntries)
+	  {
+		  depth++;
+	  }
+	  
+	  return depth;
+
+  } // public static int depthForCardinality(long expectedEntries)
 
   /**
-   * Creates an empty HashIndex file.  Used by HashIndex constructor.
+   * Creates the given number of bucket latches.
    */
-  protected void CreateEmptyHashIndexFile() {
+  protected static StampedLock[] createLatches(int count) {
+	  
+	  StampedLock[] latches = new StampedLock[count];
+	  
+	  for (int i = 0; i < count; i++)
+	  {
+		  latches[i] = new StampedLock();
+	  }
+	  
+	  return latches;
+
+  } // protected static StampedLock[] createLatches(int count)
 
-	  // Allocate the index file
-	  Page hashDirectoryPage = new Page();
-	  headId = Minibase.DiskManager.allocate_page();
+  /**
+   * Creates the given number of optimistic reader counts.
+   */
+  protected static LongAdder[] createReaderCounts(int count) {
 	  
-	  // Fill the directory page with the 128 primary bucket pages
-	  for (int i = 0; i < BUCKETS_AMOUNT; i++)
-	  {  
-		  // Set up our director structure.  We will just use a simple page structure
-		  // where at each index we have an int for the HashBucket page id.
-		  // This will fit into one page with 128 indexes with room to spare (will only 512 of 1024 bytes)
-		  // We will just initialize the page ids to invalid at first and allocate them as needed
-		  hashDirectoryPage.setIntValue(INVALID_PAGEID, i * INT_SIZE);
+	  LongAdder[] readerCounts = new LongAdder[count];
+	  
+	  for (int i = 0; i < count; i++)
+	  {
+		  readerCounts[i] = new LongAdder();
 	  }
 	  
+	  return readerCounts;
+
+  } // protected static LongAdder[] createReaderCounts(int count)
+
+  /**
+   * Gets the hashing scheme of the index, which its directory records so that
+   * the index file is only opened by the same scheme.
+   */
+  protected int getScheme() {
+	  return HashDirectory.STATIC_SCHEME;
+  }
+
+  /**
+   * Creates an empty HashIndex file with 2^depth primary buckets.  Used by
+   * HashIndex constructor.
+   */
+  protected void CreateEmptyHashIndexFile(int depth) {
+
+	  // Allocate the index file, with a directory of 2^depth slots
+	  // We will just initialize the page ids to invalid at first and allocate them as needed
+	  directory = HashDirectory.create(pages, allocator, HashDirectory.STATIC_SCHEME, depth, 1 << depth);
+	  headId = directory.getHeadId();
+	  
 	  if (null != fileName && fileName.length() > 0)
 	  {
 		  // Only add the file entry when we don't have a temporary file
-		  Minibase.DiskManager.add_file_entry(fileName, headId);
+		  allocator.addFileEntry(fileName, headId);
 	  }
-	  
-	  // Save the the changes for the directory page
-	  Minibase.BufferManager.pinPage(headId, hashDirectoryPage, PIN_MEMCPY);
-	  Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
 
-  } // protected void CreateEmptyHashIndexFile()
+  } // protected void CreateEmptyHashIndexFile(int depth)
   
   /**
    * Called by the garbage collector when there are no more references to the
@@ -115,31 +308,76 @@ public class HashIndex implements GlobalConst {
    */
   public void deleteFile() {
 	  
-	  PageId currentPageId = new PageId();
-	  Page hashDirectoryPage = new Page();		  
+	  HashMaintenanceWorker maintenanceWorker = this.maintenanceWorker;
 	  
-	  // Load the directory page
-	  Minibase.BufferManager.pinPage(headId, hashDirectoryPage, PIN_DISKIO);
-
-	  // Traverse the directory, deleting the bucket pages
-	  for (int i = 0; i < BUCKETS_AMOUNT; i++)
+	  if (null != maintenanceWorker)
 	  {
-		  currentPageId.pid = hashDirectoryPage.getIntValue(i * INT_SIZE);
-		  HashBucketPage currentPage = new HashBucketPage();
+		  // Nothing is left to compact, and the worker must not wait on the latch below
+		  maintenanceWorker.stop();
+	  }
+	  
+	  // No other operation may use the buckets while they are freed
+	  long structureStamp = latchStructure();
+	  try
+	  {
+		  PageId currentPageId = new PageId();
+	  
+		  if (null != file.resizeDirectory)
+		  {
+			  // Delete the buckets already migrated by an online resize
+			  for (int i = 0; i < file.resizeDirectory.getSlotCount(); i++)
+			  {
+				  currentPageId.pid = file.resizeDirectory.getBucketId(i);
+				  HashBucketPage currentPage = new HashBucketPage();
+			  
+				  if (INVALID_PAGEID != currentPageId.pid)
+				  {
+					  pages.pinPage(currentPageId, currentPage, PIN_DISKIO);
+					  currentPage.deleteNextPages(pages);
+					  pages.unpinPage(currentPageId, UNPIN_CLEAN);
+					  pages.freePage(currentPageId);
+				  }
+			  }
 		  
-		  if (INVALID_PAGEID != currentPageId.pid)
+			  file.resizeDirectory.free();
+			  file.resizeDirectory = null;
+		  }
+
+		  // Traverse the directory, deleting the bucket pages
+		  for (int i = 0; i < directory.getSlotCount(); i++)
 		  {
-			  // Traverse the bucket, deleting all the extended bucket pages
-			  Minibase.BufferManager.pinPage(currentPageId, currentPage, PIN_DISKIO);
-			  currentPage.deleteNextPages();
+			  if (i >= (1 << getSlotDepth(i)))
+			  {
+				  // This slot shares its bucket with a lower slot, which already deleted it
+				  continue;
+			  }
+		  
+			  currentPageId.pid = directory.getBucketId(i);
+			  HashBucketPage currentPage = new HashBucketPage();
+		  
+			  if (INVALID_PAGEID != currentPageId.pid)
+			  {
+				  // Traverse the bucket, deleting all the extended bucket pages
+				  pages.pinPage(currentPageId, currentPage, PIN_DISKIO);
+				  currentPage.deleteNextPages(pages);
 
-			  // Free the primary bucket page 
-			  Minibase.BufferManager.unpinPage(currentPageId, UNPIN_CLEAN);
-			  Minibase.BufferManager.freePage(currentPageId);
-		  }  
+				  // Free the primary bucket page 
+				  pages.unpinPage(currentPageId, UNPIN_CLEAN);
+				  pages.freePage(currentPageId);
+			  }  
+		  }
+	  
+		  // Free the header and directory pages
+		  directory.free();
+	  
+		  // Remove the entry from the library, and the file from the open ones
+		  allocator.deleteFileEntry(fileName);
+		  file.unregister();
+	  }
+	  finally
+	  {
+		  structureLatch.unlockWrite(structureStamp);
 	  }
-	  // Remove the entry from the library
-	  Minibase.DiskManager.delete_file_entry(fileName);
 
   } // public void deleteFile()
 
@@ -155,173 +393,1323 @@ public class HashIndex implements GlobalConst {
 		  throw new IllegalArgumentException("Attempted to insert an entry that is too large!");
 	  }	  
 	  
-	  Page directoryPage = new Page();
-	  boolean directoryDirty = false;	  
-	  
-	  // Load the directory page
-	  Minibase.BufferManager.pinPage(headId, directoryPage, PIN_DISKIO);
+	  long structureStamp = structureLatch.readLock();
+	  try
+	  {
+		  // Insert the entry in the primary bucket it hashes to, which may be in
+		  // the new directory of an online resize
+		  HashDirectory directory = getDirectory(key);
+		  insertIntoLatchedBucket(directory, getSlot(directory, key), new DataEntry(key, rid));
+	  }
+	  finally
+	  {
+		  structureLatch.unlockRead(structureStamp);
+	  }
 	  
-	  // Find what primary bucket this needs to go in
-	  int hashIndex = key.getHash(DEPTH);
+  } // public void insertEntry(SearchKey key, RID rid)
+
+  /**
+   * Inserts a batch of new data entries into the index file, the i-th entry
+   * being made of keys[i] and rids[i].  The entries are grouped by bucket and
+   * each bucket is filled in a single pass over its overflow chain, pinning
+   * each page once, instead of walking the chain once per entry.
+   * 
+   * @throws IllegalArgumentException if the arrays have different lengths or
+   * an entry is too large, in which case no entry is inserted
+   */
+  public void insertBatch(SearchKey[] keys, RID[] rids) {
 	  
-	  // Get the page Id of the primary bucket page at that index
-	  PageId primaryBucketId = new PageId(directoryPage.getIntValue(hashIndex * INT_SIZE));
-	  HashBucketPage primaryBucketPage = new HashBucketPage();
+	  if (keys.length != rids.length)
+	  {
+		  throw new IllegalArgumentException("Attempted to insert a batch with " + keys.length + " keys and " + rids.length + " rids!");
+	  }
 	  
-	  if (INVALID_PAGEID == primaryBucketId.pid)
-	  { // No primary bucket page for that index 
+	  for (int i = 0; i < keys.length; i++)
+	  {
+		  if (keys[i].getLength() > HashBucketPage.MAX_ENTRY_SIZE)
+		  {
+			  throw new IllegalArgumentException("Attempted to insert an entry that is too large!");
+		  }
+	  }
 	  
-		  // so create one
-		  primaryBucketId = Minibase.DiskManager.allocate_page();
-		  Minibase.BufferManager.pinPage(primaryBucketId, primaryBucketPage, PIN_MEMCPY);
+	  long structureStamp = structureLatch.readLock();
+	  try
+	  {
+		  // Group the entries by primary bucket, in directory order
+		  TreeMap<Integer, ArrayList<DataEntry>> buckets = new TreeMap<Integer, ArrayList<DataEntry>>();
+		  TreeMap<Integer, ArrayList<DataEntry>> migratedBuckets = new TreeMap<Integer, ArrayList<DataEntry>>();
+		  
+		  for (int i = 0; i < keys.length; i++)
+		  {
+			  // The old bucket may have been migrated by an online resize, then use the new directory
+			  HashDirectory directory = getDirectory(keys[i]);
+			  int slot = getSlot(directory, keys[i]);
+			  TreeMap<Integer, ArrayList<DataEntry>> group = directory == this.directory ? buckets : migratedBuckets;
+			  
+			  if (!group.containsKey(slot))
+			  {
+				  group.put(slot, new ArrayList<DataEntry>());
+			  }
+			  group.get(slot).add(new DataEntry(keys[i], rids[i]));
+		  }
+		  
+		  // Fill each bucket in one pass, latching one bucket at a time
+		  for (Map.Entry<Integer, ArrayList<DataEntry>> bucket : buckets.entrySet())
+		  {
+			  insertIntoLatchedBucket(directory, bucket.getKey(), bucket.getValue());
+		  }
 		  
-		  // And reference it in the directory
-		  directoryPage.setIntValue(primaryBucketId.pid, hashIndex * INT_SIZE);
-		  directoryDirty = true;
+		  for (Map.Entry<Integer, ArrayList<DataEntry>> bucket : migratedBuckets.entrySet())
+		  {
+			  insertIntoLatchedBucket(file.resizeDirectory, bucket.getKey(), bucket.getValue());
+		  }
 	  }
-	  else
-	  { // We have a primary bucket, so load it
-		  Minibase.BufferManager.pinPage(primaryBucketId, primaryBucketPage, PIN_DISKIO);  
+	  finally
+	  {
+		  structureLatch.unlockRead(structureStamp);
 	  }
+
+  } // public void insertBatch(SearchKey[] keys, RID[] rids)
+
+  /**
+   * Inserts a batch of data entries into the bucket of a slot of the given
+   * directory while holding the bucket's latch exclusively.  The caller holds
+   * the structure latch.
+   */
+  protected void insertIntoLatchedBucket(HashDirectory directory, int slot, List<DataEntry> entries) {
 	  
-	  // Build the entry object
-	  DataEntry entry = new DataEntry(key, rid);
-	  
-	  // Insert the entry in our hash bucket and unpin clean/dirty as appropriate
-	  if (primaryBucketPage.insertEntry(entry))
+	  long bucketStamp = latchBucket(slot);
+	  try
 	  {
-		  Minibase.BufferManager.unpinPage(primaryBucketId, UNPIN_DIRTY);
+		  insertIntoBucket(directory, slot, entries);
 	  }
-	  else
+	  finally
 	  {
-		  Minibase.BufferManager.unpinPage(primaryBucketId, UNPIN_CLEAN);
+		  getBucketLatch(slot).unlockWrite(bucketStamp);
 	  }
+
+  } // protected void insertIntoLatchedBucket(HashDirectory directory, int slot, List<DataEntry> entries)
+
+  /**
+   * Inserts a data entry into the bucket of a slot of the given directory
+   * while holding the bucket's latch exclusively.  The caller holds the
+   * structure latch.
+   * 
+   * @return true if the insert added an overflow page to the bucket's chain,
+   * false otherwise
+   */
+  protected boolean insertIntoLatchedBucket(HashDirectory directory, int slot, DataEntry entry) {
 	  
-	  // Unpin the directory page, dirty/clean as appropriate
-	  if (directoryDirty)
+	  long bucketStamp = latchBucket(slot);
+	  try
 	  {
-		  Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
+		  return insertIntoBucket(directory, slot, entry);
 	  }
-	  else
+	  finally
 	  {
-		  Minibase.BufferManager.unpinPage(headId, UNPIN_CLEAN);
-		  
+		  getBucketLatch(slot).unlockWrite(bucketStamp);
 	  }
-  } // public void insertEntry(SearchKey key, RID rid)
+
+  } // protected boolean insertIntoLatchedBucket(HashDirectory directory, int slot, DataEntry entry)
 
   /**
-   * Deletes the specified data entry from the index file.
+   * Inserts a batch of data entries into the bucket of a slot of the given
+   * directory, allocating the primary bucket page if the slot does not
+   * reference one yet.
+   */
+  protected void insertIntoBucket(HashDirectory directory, int slot, List<DataEntry> entries) {
+	  appendToBucket(directory, slot, entries);
+  }
+
+  /**
+   * Inserts a data entry into the bucket of a slot of the given directory,
+   * allocating the primary bucket page if the slot does not reference one yet.
    * 
-   * @throws IllegalArgumentException if the entry doesn't exist
+   * @return true if the insert added an overflow page to the bucket's chain,
+   * false otherwise
    */
-  public void deleteEntry(SearchKey key, RID rid) {
+  protected boolean insertIntoBucket(HashDirectory directory, int slot, DataEntry entry) {
 	  
-	  Page directoryPage = new Page();
+	  ArrayList<DataEntry> entries = new ArrayList<DataEntry>();
+	  entries.add(entry);
 	  
-	  // Load the directory page
-	  Minibase.BufferManager.pinPage(headId, directoryPage, PIN_DISKIO);
+	  // A chain that gains its primary page has no overflow page yet
+	  int chainLength = Math.max(directory.getChainLength(slot), 1);
+	  appendToBucket(directory, slot, entries);
 	  
-	  // Find what primary bucket this needs to be deleted from
-	  int hashIndex = key.getHash(DEPTH);
+	  return directory.getChainLength(slot) > chainLength;
+
+  } // protected boolean insertIntoBucket(HashDirectory directory, int slot, DataEntry entry)
+
+  /**
+   * Inserts data entries into the bucket of a slot of the given directory,
+   * starting at the slot's insert page rather than at the primary page, so
+   * the cost of an insert does not grow with the length of the bucket's
+   * chain.  The page the last entry goes to becomes the slot's insert page,
+   * and the entries and pages the bucket gained are added to the slot's counts.
+   * 
+   * @return the page id of the page the last entry went to
+   */
+  protected int appendToBucket(HashDirectory directory, int slot, List<DataEntry> entries) {
 	  
-	  // Get the page Id of the primary bucket page at that index
-	  PageId primaryBucketId = new PageId(directoryPage.getIntValue(hashIndex * INT_SIZE));
-	  HashBucketPage primaryBucketPage = new HashBucketPage();
+	  recordAccess();
 	  
-	  if (INVALID_PAGEID == primaryBucketId.pid)
-	  { // No primary bucket page for that index 
-		  throw new IllegalArgumentException("Attempted to delete an entry that did not exist!");
+	  int primaryBucketPid = directory.getBucketId(slot);
+	  
+	  if (INVALID_PAGEID == primaryBucketPid)
+	  { // No primary bucket page for that index, so create one and reference it in the directory
+		  PageId primaryBucketId = allocator.allocatePage();
+		  pages.pinPage(primaryBucketId, new HashBucketPage(), PIN_MEMCPY);
+		  pages.unpinPage(primaryBucketId, UNPIN_DIRTY);
+		  
+		  primaryBucketPid = primaryBucketId.pid;
+		  directory.setBucketId(slot, primaryBucketPid);
+		  directory.setCounts(slot, 0, 1);
 	  }
 	  
-	  // Load the primary bucket page
-	  Minibase.BufferManager.pinPage(primaryBucketId, primaryBucketPage, PIN_DISKIO); 
+	  // Record the keys in the bucket's filter before they can be looked up
+	  directory.addToFilter(slot, entries);
 	  
-	  // Build the entry object
-	  DataEntry entry = new DataEntry(key, rid);
+	  // Start where the last insert ended, or at the primary page for the first one
+	  int insertPid = directory.getInsertPageId(slot);
 	  
-	  // Delete the entry in our hash bucket and unpin clean/dirty as appropriate
-	  if (primaryBucketPage.deleteEntry(entry))
+	  if (INVALID_PAGEID == insertPid)
 	  {
-		  Minibase.BufferManager.unpinPage(primaryBucketId, UNPIN_DIRTY);
+		  insertPid = primaryBucketPid;
 	  }
-	  else
+	  
+	  PageId lastPageId = new PageId(insertPid);
+	  int addedPages = HashBucketPage.appendEntries(lastPageId, entries, pages, allocator);
+	  directory.setInsertPageId(slot, lastPageId.pid);
+	  directory.addToCounts(slot, entries.size(), addedPages);
+	  
+	  return lastPageId.pid;
+
+  } // protected int appendToBucket(HashDirectory directory, int slot, List<DataEntry> entries)
+
+  /**
+   * Reloads the Bloom filter and the counts of a slot from its bucket's chain
+   * and forgets its insert page, once a split has rewritten the chain.
+   */
+  protected void rebuildSlot(int slot) {
+	  
+	  directory.unload(slot);
+	  directory.load(slot);
+
+  } // protected void rebuildSlot(int slot)
+
+  /**
+   * Compacts every bucket of the index, repacking each overflow chain into as
+   * few pages as its entries fit in and freeing the pages left over.  The
+   * Bloom filters of the rewritten buckets are rebuilt on the way, dropping
+   * the bits of deleted keys.
+   * 
+   * @return the number of pages freed
+   */
+  public int compact() {
+	  
+	  int freedCount = 0;
+	  
+	  long structureStamp = structureLatch.readLock();
+	  try
+	  {
+		  for (int i = 0; i < directory.getSlotCount(); i++)
+		  {
+			  if (i >= (1 << getSlotDepth(i)))
+			  {
+				  // This slot shares its bucket with a lower slot, which already compacted it
+				  continue;
+			  }
+			  
+			  freedCount += compactLatchedBucket(directory, i);
+		  }
+		  
+		  if (null != file.resizeDirectory)
+		  {
+			  // Compact the buckets already migrated by an online resize as well
+			  for (int i = 0; i < file.resizeDirectory.getSlotCount(); i++)
+			  {
+				  freedCount += compactLatchedBucket(file.resizeDirectory, i);
+			  }
+		  }
+	  }
+	  finally
 	  {
-		  Minibase.BufferManager.unpinPage(primaryBucketId, UNPIN_CLEAN);
+		  structureLatch.unlockRead(structureStamp);
 	  }
 	  
-	  // Unpin our directory page to leave it as we found it
-	  Minibase.BufferManager.unpinPage(headId, UNPIN_CLEAN);
+	  return freedCount;
 
-  } // public void deleteEntry(SearchKey key, RID rid)
+  } // public int compact()
 
   /**
-   * Initiates an equality scan of the index file.
+   * Compacts the bucket that the given key hashes to, like compact does for
+   * every bucket.
+   * 
+   * @return the number of pages freed
    */
-  public HashScan openScan(SearchKey key) {
-    return new HashScan(this, key);
-  }
+  public int compact(SearchKey key) {
+	  
+	  long structureStamp = structureLatch.readLock();
+	  try
+	  {
+		  HashDirectory directory = getDirectory(key);
+		  
+		  return compactLatchedBucket(directory, getSlot(directory, key));
+	  }
+	  finally
+	  {
+		  structureLatch.unlockRead(structureStamp);
+	  }
+
+  } // public int compact(SearchKey key)
 
   /**
-   * Returns the name of the index file.
+   * Compacts the bucket of a slot of the given directory while holding the
+   * bucket's latch exclusively.  The caller holds the structure latch.
+   * 
+   * @return the number of pages freed
    */
-  public String toString() {
-    return fileName;
-  }
+  protected int compactLatchedBucket(HashDirectory directory, int slot) {
+	  
+	  long bucketStamp = latchBucket(slot);
+	  try
+	  {
+		  return compactBucket(directory, slot);
+	  }
+	  finally
+	  {
+		  getBucketLatch(slot).unlockWrite(bucketStamp);
+	  }
+
+  } // protected int compactLatchedBucket(HashDirectory directory, int slot)
 
   /**
-   * Prints a high-level view of the directory, namely which buckets are
-   * allocated and how many entries are stored in each one. Sample output:
+   * Compacts the bucket of a slot of the given directory, reading its chain
+   * once.  If the chain was rewritten, the slot's Bloom filter is rebuilt,
+   * inserts start over at the primary page, and the freed pages are taken off
+   * the slot's chain length; a chain that is already packed is left as is.
    * 
-   * <pre>
-   * IX_Customers
-   * ------------
-   * 0000000 : 35
-   * 0000001 : null
-   * 0000010 : 27
-   * ...
-   * 1111111 : 42
-   * ------------
-   * Total : 1500
-   * </pre>
+   * @return the number of pages freed
    */
-  public void printSummary() {
+  protected int compactBucket(HashDirectory directory, int slot) {
+	  
+	  PageId primaryBucketId = new PageId(directory.getBucketId(slot));
+	  int pageCount = directory.getChainLength(slot);
+	  
+	  if (INVALID_PAGEID == primaryBucketId.pid || pageCount <= 1)
+	  {
+		  // A bucket of a single page can not get any shorter
+		  return 0;
+	  }
+	  
+	  HashBucketPage primaryBucketPage = new HashBucketPage();
+	  pages.pinPage(primaryBucketId, primaryBucketPage, PIN_DISKIO);
+	  
+	  // A chain is only rewritten when that frees pages, so freedCount tells whether it was
+	  ArrayList<DataEntry> entries = primaryBucketPage.getEntries(pages);
+	  int freedCount = primaryBucketPage.compactEntries(entries, pageCount, pages, allocator);
+	  
+	  pages.unpinPage(primaryBucketId, freedCount > 0 ? UNPIN_DIRTY : UNPIN_CLEAN);
+	  
+	  if (freedCount > 0)
+	  {
+		  directory.rebuildFilter(slot, entries);
+		  directory.setInsertPageId(slot, INVALID_PAGEID);
+		  directory.setCounts(slot, entries.size(), pageCount - freedCount);
+	  }
+	  
+	  return freedCount;
 
-	  // Print header
-	  System.out.println("IX_Customers\n");
-	  System.out.println("------------\n");
+  } // protected int compactBucket(HashDirectory directory, int slot)
+
+  /**
+   * Allocates an empty primary bucket page and references it in a directory
+   * slot.  Used by dynamic hashing schemes, which allocate their buckets up
+   * front.
+   */
+  protected void allocateBucket(int slot) {
 	  
-	  Page directoryPage = new Page();
+	  PageId primaryBucketId = allocator.allocatePage();
+	  HashBucketPage primaryBucketPage = new HashBucketPage();
 	  
-	  // Load the directory page
-	  Minibase.BufferManager.pinPage(headId, directoryPage, PIN_DISKIO);
+	  // Save the empty bucket page and reference it in the directory
+	  pages.pinPage(primaryBucketId, primaryBucketPage, PIN_MEMCPY);
+	  pages.unpinPage(primaryBucketId, UNPIN_DIRTY);
+	  directory.setBucketId(slot, primaryBucketId.pid);
+	  directory.setCounts(slot, 0, 1);
+
+  } // protected void allocateBucket(int slot)
+
+  /**
+   * Deletes the specified data entry from the index file.
+   * 
+   * @throws IllegalArgumentException if the entry doesn't exist
+   */
+  public void deleteEntry(SearchKey key, RID rid) {
 	  
-	  for (int i = 0; i < BUCKETS_AMOUNT; i++)
+	  long structureStamp = structureLatch.readLock();
+	  try
 	  {
-		  // Get the page Id of the primary bucket page at that index
-		  PageId primaryBucketId = new PageId(directoryPage.getIntValue(i * INT_SIZE));
-		  HashBucketPage primaryBucketPage = new HashBucketPage();
-		  String numberOfEntries = new String();
-		  
-		  if (INVALID_PAGEID == primaryBucketId.pid)
-		  { // No primary bucket page for that index 
-			  numberOfEntries = "null";
+		  HashDirectory directory = getDirectory(key);
+		  int slot = getSlot(directory, key);
+		  long bucketStamp = latchBucket(slot);
+		  try
+		  {
+			  deleteFromBucket(directory, key, rid);
 		  }
-		  else
+		  finally
 		  {
-			  // Load the primary bucket page for this index
-			  Minibase.BufferManager.pinPage(primaryBucketId, primaryBucketPage, PIN_DISKIO); 
-			  
-			  // Get our entry count for this page and any linked bucket pages
-			  numberOfEntries = Integer.toString(primaryBucketPage.countEntries());
+			  getBucketLatch(slot).unlockWrite(bucketStamp);
+		  }
+	  }
+	  finally
+	  {
+		  structureLatch.unlockRead(structureStamp);
+	  }
+
+  } // public void deleteEntry(SearchKey key, RID rid)
+
+  /**
+   * Deletes the specified data entry from its bucket in the given directory.
+   * The caller holds the structure latch and the bucket's latch.
+   * 
+   * @throws IllegalArgumentException if the entry doesn't exist
+   */
+  protected void deleteFromBucket(HashDirectory directory, SearchKey key, RID rid) {
+	  
+	  // Find the primary bucket this needs to be deleted from
+	  PageId primaryBucketId = getPrimaryBucketId(key);
+	  HashBucketPage primaryBucketPage = new HashBucketPage();
+	  
+	  if (INVALID_PAGEID == primaryBucketId.pid)
+	  { // No primary bucket page for that index 
+		  throw new IllegalArgumentException("Attempted to delete an entry that did not exist!");
+	  }
+	  
+	  // Load the primary bucket page
+	  pages.pinPage(primaryBucketId, primaryBucketPage, PIN_DISKIO); 
+	  
+	  // Build the entry object
+	  DataEntry entry = new DataEntry(key, rid);
+	  
+	  // The bucket's insert page stays in its chain even if this empties it
+	  int slot = getSlot(directory, key);
+	  int insertPid = directory.getInsertPageId(slot);
+	  int deleted;
+	  
+	  // Delete the entry in our hash bucket and unpin clean/dirty as appropriate
+	  try
+	  {
+		  deleted = primaryBucketPage.deleteEntry(entry, insertPid, pages);
+		  
+		  if (0 != (deleted & HashBucketPage.DELETE_DIRTY))
+		  {
+			  pages.unpinPage(primaryBucketId, UNPIN_DIRTY);
+		  }
+		  else
+		  {
+			  pages.unpinPage(primaryBucketId, UNPIN_CLEAN);
+		  }
+	  }
+	  catch (IllegalArgumentException e)
+	  {
+		  // Leave the bucket page as we found it before reporting the missing entry
+		  pages.unpinPage(primaryBucketId, UNPIN_CLEAN);
+		  throw e;
+	  }
+	  
+	  // The bucket lost the entry, and the page it emptied if that was freed
+	  directory.addToCounts(slot, -1, 0 != (deleted & HashBucketPage.DELETE_FREED) ? -1 : 0);
+	  
+	  HashMaintenanceWorker maintenanceWorker = this.maintenanceWorker;
+	  
+	  if (null != maintenanceWorker)
+	  {
+		  // The delete left the bucket sparser, so it may be worth compacting
+		  maintenanceWorker.bucketChanged(primaryBucketId.pid, key);
+	  }
+
+  } // protected void deleteFromBucket(HashDirectory directory, SearchKey key, RID rid)
+
+  /**
+   * Gets the page id of the primary bucket page that the given key hashes to.
+   * The returned page id is invalid if that bucket has not been allocated yet,
+   * or if its Bloom filter shows that the key is not in it, so lookups of absent
+   * keys do not read any bucket page.  Used by HashScan so that every hashing
+   * scheme can share the same scan.
+   */
+  protected PageId getPrimaryBucketId(SearchKey key) {
+	  
+	  recordAccess();
+	  
+	  HashDirectory directory = getDirectory(key);
+	  int slot = getSlot(directory, key);
+	  
+	  if (!directory.mayContain(slot, key))
+	  {
+		  return new PageId(INVALID_PAGEID);
+	  }
+	  
+	  return new PageId(directory.getBucketId(slot));
+
+  } // protected PageId getPrimaryBucketId(SearchKey key)
+
+  /**
+   * Gets the directory holding the bucket that the given key hashes to, which
+   * is the directory being resized to once the key's old bucket has been
+   * migrated by an online resize.
+   */
+  protected HashDirectory getDirectory(SearchKey key) {
+
+	  // Read the directory being resized to once, since an optimistic lookup
+	  // may see the resize finish and clear it meanwhile
+	  HashDirectory resizing = file.resizeDirectory;
+
+	  return null != resizing && getSlot(key) < directory.getResizeNext() ? resizing : directory;
+
+  } // protected HashDirectory getDirectory(SearchKey key)
+
+  /**
+   * Gets the slot that the given key hashes to in the given directory, which
+   * is either the index's directory or the directory being resized to.
+   */
+  protected int getSlot(HashDirectory directory, SearchKey key) {
+	  return directory == this.directory ? getSlot(key) : key.getHash(directory.getDepth());
+  }
+
+  /**
+   * Gets the directory slot that the given key hashes to.
+   */
+  protected int getSlot(SearchKey key) {
+	  return key.getHash(directory.getDepth());
+  }
+
+  /**
+   * Gets the number of hash bits that select the given directory slot.  Slots
+   * at or above 2^depth share their bucket with a lower slot.
+   */
+  protected int getSlotDepth(int slot) {
+	  return directory.getDepth();
+  }
+
+  /**
+   * Gets the latch of the bucket of a directory slot, in either the index's
+   * directory or the directory being resized to.
+   */
+  protected StampedLock getBucketLatch(int slot) {
+	  return bucketLatches[slot % LATCH_STRIPES];
+  }
+
+  /**
+   * Gets the latch of the bucket that the given key hashes to.  The caller
+   * holds the structure latch, so the key's bucket can not change.
+   */
+  protected StampedLock getBucketLatch(SearchKey key) {
+	  
+	  HashDirectory directory = getDirectory(key);
+	  
+	  return getBucketLatch(getSlot(directory, key));
+
+  } // protected StampedLock getBucketLatch(SearchKey key)
+
+  /**
+   * Latches the bucket of a directory slot exclusively, once the optimistic
+   * readers already walking its chain are done: the page store can not free
+   * a page they have pinned, and they must not see a page half written.  Later
+   * optimistic readers see the latch and retry.
+   * 
+   * @return the stamp to unlock the bucket's latch with
+   */
+  protected long latchBucket(int slot) {
+	  
+	  long bucketStamp = getBucketLatch(slot).writeLock();
+	  awaitOptimisticReaders(slot % LATCH_STRIPES);
+	  
+	  return bucketStamp;
+
+  } // protected long latchBucket(int slot)
+
+  /**
+   * Latches the directory's layout exclusively, once the optimistic readers
+   * already walking a bucket are done.
+   * 
+   * @return the stamp to unlock the structure latch with
+   */
+  protected long latchStructure() {
+	  
+	  long structureStamp = structureLatch.writeLock();
+	  
+	  for (int i = 0; i < LATCH_STRIPES; i++)
+	  {
+		  awaitOptimisticReaders(i);
+	  }
+	  
+	  return structureStamp;
+
+  } // protected long latchStructure()
+
+  /**
+   * Waits until no optimistic reader walks a bucket of the given latch.  No new
+   * one can start once the latch is held, so the wait is bounded by the walks
+   * already running.  The writer parks instead of spinning, since it holds
+   * latches that other threads may be waiting for; the last reader to leave
+   * unparks it, and it counts the readers again at least every
+   * READER_WAIT_NANOS in case it was woken for another reason.
+   */
+  protected void awaitOptimisticReaders(int stripe) {
+	  
+	  if (0 == optimisticReaders[stripe].sum())
+	  {
+		  return;
+	  }
+	  
+	  // Only one writer at a time holds the latch, so only one waits on its readers
+	  readerWaiters.set(stripe, Thread.currentThread());
+	  try
+	  {
+		  while (0 != optimisticReaders[stripe].sum())
+		  {
+			  LockSupport.parkNanos(this, READER_WAIT_NANOS);
+		  }
+	  }
+	  finally
+	  {
+		  readerWaiters.set(stripe, null);
+	  }
+
+  } // protected void awaitOptimisticReaders(int stripe)
+
+  /**
+   * Starts an online resize of the index to 2^depth primary buckets.  The
+   * buckets are then migrated a few at a time by resizeStep, while inserts,
+   * deletes and scans keep working: a key whose old bucket has been migrated is
+   * looked up in the new directory, any other key in the old one.  The resize
+   * is recorded in the header page, so it survives reopening the index.
+   * 
+   * @throws IllegalArgumentException if the depth is out of range
+   * @throws IllegalStateException if a resize is already in progress
+   */
+  public void beginResize(int depth) {
+	  
+	  long structureStamp = latchStructure();
+	  try
+	  {
+		  if (depth < 0 || depth > HashDirectory.MAX_DEPTH)
+		  {
+			  throw new IllegalArgumentException("A hash index depth must be between 0 and " + HashDirectory.MAX_DEPTH + "!");
+		  }
+	  
+		  if (null != file.resizeDirectory)
+		  {
+			  throw new IllegalStateException("The hash index is already being resized!");
+		  }
+	  
+		  // Create the new directory, none of the old buckets are migrated yet
+		  file.resizeDirectory = HashDirectory.create(pages, allocator, HashDirectory.STATIC_SCHEME, depth, 1 << depth);
+		  directory.setResizeNext(0);
+		  directory.setResizeHeadId(file.resizeDirectory.getHeadId().pid);
+	  }
+	  finally
+	  {
+		  structureLatch.unlockWrite(structureStamp);
+	  }
+
+  } // public void beginResize(int depth)
+
+  /**
+   * Migrates up to the given number of old buckets to the new directory of an
+   * online resize.  Once every old bucket has been migrated, the index switches
+   * over to the new directory in a single write of the header page.
+   * <br><br>
+   * Migrating holds the structure latch exclusively, so no other operation
+   * sees a bucket that is half migrated.
+   * 
+   * @return true if the resize is complete, false if buckets remain
+   * @throws IllegalStateException if no resize is in progress
+   */
+  public boolean resizeStep(int bucketCount) {
+	  
+	  long structureStamp = latchStructure();
+	  try
+	  {
+		  if (null == file.resizeDirectory)
+		  {
+			  throw new IllegalStateException("The hash index is not being resized!");
+		  }
+	  
+		  int newDepth = file.resizeDirectory.getDepth();
+	  
+		  for (int i = 0; i < bucketCount && directory.getResizeNext() < directory.getSlotCount(); i++)
+		  {
+			  int slot = directory.getResizeNext();
+			  PageId oldBucketId = new PageId(directory.getBucketId(slot));
+		  
+			  if (INVALID_PAGEID != oldBucketId.pid)
+			  {
+				  // Copy the old bucket's entries to their new buckets
+				  HashBucketPage oldBucketPage = new HashBucketPage();
+				  pages.pinPage(oldBucketId, oldBucketPage, PIN_DISKIO);
+			  
+				  for (DataEntry entry : oldBucketPage.getEntries(pages))
+				  {
+					  insertIntoBucket(file.resizeDirectory, entry.key.getHash(newDepth), entry);
+				  }
 			  
-			  // Unpin our bucket page to leave it as we found it
-			  Minibase.BufferManager.unpinPage(primaryBucketId, UNPIN_CLEAN);	
+				  // Free the old bucket
+				  oldBucketPage.deleteNextPages(pages);
+				  pages.unpinPage(oldBucketId, UNPIN_CLEAN);
+				  pages.freePage(oldBucketId);
+				  directory.setBucketId(slot, INVALID_PAGEID);
+				  directory.setCounts(slot, 0, 0);
+			  }
+		  
+			  // From now on the keys of this slot are looked up in the new directory
+			  directory.setResizeNext(slot + 1);
 		  }
-		  System.out.println(Integer.toString(i,2) + " : " + numberOfEntries + "\n");
+	  
+		  if (directory.getResizeNext() < directory.getSlotCount())
+		  {
+			  return false;
+		  }
+	  
+		  // Every old bucket is migrated, so switch over to the new directory
+		  directory.replaceWith(file.resizeDirectory);
+		  file.resizeDirectory = null;
+	  
+		  return true;
+	  }
+	  finally
+	  {
+		  structureLatch.unlockWrite(structureStamp);
+	  }
+
+  } // public boolean resizeStep(int bucketCount)
+
+  /**
+   * Resizes the index to 2^depth primary buckets in one go.
+   * 
+   * @throws IllegalArgumentException if the depth is out of range
+   * @throws IllegalStateException if a resize is already in progress
+   */
+  public void resize(int depth) {
+	  
+	  beginResize(depth);
+	  
+	  // Each step latches the directory, so the steps can not be made under one latch
+	  while (!resizeStep(directory.getSlotCount()))
+	  {
+		  // Keep migrating until the switch over
+	  }
+
+  } // public void resize(int depth)
+
+  /**
+   * Tells whether an online resize is in progress.
+   */
+  public boolean isResizing() {
+	  return null != file.resizeDirectory;
+  }
+
+  /**
+   * Initiates an equality scan of the index file.
+   */
+  public HashScan openScan(SearchKey key) {
+	  return new HashScan(this, key);
+  }
+
+  /**
+   * Gets the RIDs of every entry with the given key.  Used by HashScan, which
+   * reads its key's entries at once so that it holds no latch or page between
+   * calls.
+   * <br><br>
+   * The key's bucket is walked optimistically first, without latching it, and
+   * the walk is retried if a writer got in before it started.  After
+   * OPTIMISTIC_ATTEMPTS tries the bucket is latched in shared mode instead, or
+   * exclusively if the directory has not loaded its slot since the file was
+   * opened: the slot is loaded then, so the bucket's Bloom filter rules out
+   * absent keys from the next lookup on.
+   */
+  protected ArrayList<RID> lookup(SearchKey key) {
+	  
+	  for (int i = 0; i < OPTIMISTIC_ATTEMPTS; i++)
+	  {
+		  ArrayList<RID> rids = lookupOptimistic(key);
+		  
+		  if (null != rids)
+		  {
+			  return rids;
+		  }
+	  }
+	  
+	  // Writers kept getting in first, so wait for them behind the latches
+	  long structureStamp = structureLatch.readLock();
+	  try
+	  {
+		  HashDirectory directory = getDirectory(key);
+		  int slot = getSlot(directory, key);
+		  boolean loading = !directory.isLoaded(slot);
+		  
+		  StampedLock bucketLatch = getBucketLatch(slot);
+		  long bucketStamp = loading ? latchBucket(slot) : bucketLatch.readLock();
+		  try
+		  {
+			  if (loading)
+			  {
+				  directory.load(slot);
+			  }
+			  
+			  return getRids(key);
+		  }
+		  finally
+		  {
+			  bucketLatch.unlock(bucketStamp);
+		  }
+	  }
+	  finally
+	  {
+		  structureLatch.unlockRead(structureStamp);
+	  }
+
+  } // protected ArrayList<RID> lookup(SearchKey key)
+
+  /**
+   * Walks the bucket of the given key without latching it.  The stamps of the
+   * structure latch and the bucket latch are read first, then the walk
+   * registers as an optimistic reader of the bucket and checks that the stamps
+   * are still valid: from then on writers wait for the walk to finish before
+   * changing the bucket, so it reads the same entries as a latched walk.
+   * 
+   * @return the RIDs of the entries with the key, or null if a writer held or
+   * took a latch before the walk registered, or if the bucket's slot is not
+   * loaded, which takes latching the bucket
+   */
+  protected ArrayList<RID> lookupOptimistic(SearchKey key) {
+	  
+	  long structureStamp = structureLatch.tryOptimisticRead();
+	  
+	  if (0 == structureStamp)
+	  { // A split or resize is running
+		  return null;
+	  }
+	  
+	  // A split grows the directory before it publishes the new depth, so the
+	  // slot is always in the directory even if the stamp turns out stale
+	  HashDirectory directory = getDirectory(key);
+	  int slot = getSlot(directory, key);
+	  int stripe = slot % LATCH_STRIPES;
+	  
+	  long bucketStamp = bucketLatches[stripe].tryOptimisticRead();
+	  
+	  optimisticReaders[stripe].increment();
+	  try
+	  {
+		  if (!bucketLatches[stripe].validate(bucketStamp) || !structureLatch.validate(structureStamp))
+		  {
+			  // A writer got in before this walk registered, so it may not wait for the walk
+			  return null;
+		  }
+		  
+		  if (!directory.isLoaded(slot))
+		  {
+			  // Without its filter the walk could not rule out an absent key
+			  return null;
+		  }
+		  
+		  return getRids(key);
+	  }
+	  finally
+	  {
+		  optimisticReaders[stripe].decrement();
+		  
+		  // Wake a writer waiting for the walk, which counts the readers again
+		  Thread waiter = readerWaiters.get(stripe);
+		  
+		  if (null != waiter)
+		  {
+			  LockSupport.unpark(waiter);
+		  }
+	  }
+
+  } // protected ArrayList<RID> lookupOptimistic(SearchKey key)
+
+  /**
+   * Gets the RIDs of every entry with the given key, walking the key's bucket
+   * one page at a time.  The caller makes sure that no writer changes the
+   * bucket meanwhile.
+   */
+  protected ArrayList<RID> getRids(SearchKey key) {
+	  
+	  ArrayList<RID> rids = new ArrayList<RID>();
+	  PageId pageId = getPrimaryBucketId(key);
+	  
+	  while (INVALID_PAGEID != pageId.pid)
+	  {
+		  HashBucketPage page = new HashBucketPage();
+		  pages.pinPage(pageId, page, PIN_DISKIO);
+		  
+		  // Collect the entries for this key on this page
+		  for (int slot = page.nextEntry(key, -1); -1 != slot; slot = page.nextEntry(key, slot))
+		  {
+			  rids.add(page.getEntryAt(slot).rid);
+		  }
+		  
+		  // Unpin the page before moving on to the next one
+		  PageId nextPageId = page.getNextPage();
+		  pages.unpinPage(pageId, UNPIN_CLEAN);
+		  pageId = nextPageId;
+	  }
+	  
+	  return rids;
+
+  } // protected ArrayList<RID> getRids(SearchKey key)
+
+  /**
+   * Records the time of an insert or lookup.  The time is only written when it
+   * changed, so that concurrent lookups do not keep writing the same field.
+   */
+  protected void recordAccess() {
+	  
+	  long now = System.currentTimeMillis();
+	  
+	  if (now != lastAccessTime)
+	  {
+		  lastAccessTime = now;
+	  }
+
+  } // protected void recordAccess()
+
+  /**
+   * Tells whether the index has had no insert or lookup for the given time, so
+   * a HashMaintenanceWorker can compact its buckets.
+   */
+  protected boolean isIdle(long idleMillis) {
+	  return System.currentTimeMillis() - lastAccessTime >= idleMillis;
+  }
+
+  /**
+   * Attaches a maintenance worker to the index, unless it already has one.
+   *
+   * @return true if the worker was attached, false otherwise
+   */
+  protected boolean attachMaintenanceWorker(HashMaintenanceWorker worker) {
+
+	  synchronized (maintenanceLock)
+	  {
+		  if (null != maintenanceWorker)
+		  {
+			  return false;
+		  }
+
+		  maintenanceWorker = worker;
+		  return true;
+	  }
+
+  } // protected boolean attachMaintenanceWorker(HashMaintenanceWorker worker)
+
+  /**
+   * Detaches a maintenance worker from the index, if it is the attached one.
+   */
+  protected void detachMaintenanceWorker(HashMaintenanceWorker worker) {
+
+	  synchronized (maintenanceLock)
+	  {
+		  if (worker == maintenanceWorker)
+		  {
+			  maintenanceWorker = null;
+		  }
+	  }
+
+  } // protected void detachMaintenanceWorker(HashMaintenanceWorker worker)
+
+  /**
+   * Looks up many keys at once, for IN-lists and joins.  The keys are grouped
+   * by bucket, and each touched bucket chain is read once for all of its keys
+   * instead of once per key.  The Bloom filter of a bucket is checked under
+   * the same shared latch as its chain is read, so keys it rules out do not
+   * cost a read, and a bucket that none of its keys may be in is not read.  A
+   * bucket whose slot the directory has not loaded is latched exclusively
+   * instead, and its slot is loaded first, as lookup does.
+   *
+   * @return the RIDs of the matching entries, the i-th list holding the
+   * matches of keys[i] in the order a HashScan would return them
+   */
+  public ArrayList<ArrayList<RID>> lookupBatch(SearchKey[] keys) {
+
+	  recordAccess();
+
+	  ArrayList<ArrayList<RID>> results = new ArrayList<ArrayList<RID>>(keys.length);
+
+	  long structureStamp = structureLatch.readLock();
+	  try
+	  {
+		  // Group the key positions by directory and slot, in slot order; the
+		  // structure latch keeps every key in its slot meanwhile
+		  LinkedHashMap<HashDirectory, TreeMap<Integer, ArrayList<Integer>>> buckets = new LinkedHashMap<HashDirectory, TreeMap<Integer, ArrayList<Integer>>>();
+
+		  for (int i = 0; i < keys.length; i++)
+		  {
+			  results.add(new ArrayList<RID>());
+			  HashDirectory directory = getDirectory(keys[i]);
+			  int slot = getSlot(directory, keys[i]);
+
+			  if (!buckets.containsKey(directory))
+			  {
+				  buckets.put(directory, new TreeMap<Integer, ArrayList<Integer>>());
+			  }
+			  if (!buckets.get(directory).containsKey(slot))
+			  {
+				  buckets.get(directory).put(slot, new ArrayList<Integer>());
+			  }
+			  buckets.get(directory).get(slot).add(i);
+		  }
+
+		  for (Map.Entry<HashDirectory, TreeMap<Integer, ArrayList<Integer>>> slots : buckets.entrySet())
+		  {
+			  HashDirectory directory = slots.getKey();
+
+			  for (Map.Entry<Integer, ArrayList<Integer>> bucket : slots.getValue().entrySet())
+			  {
+				  int slot = bucket.getKey();
+
+				  // The matches of every key that may be in this bucket
+				  TreeMap<SearchKey, ArrayList<RID>> matches = new TreeMap<SearchKey, ArrayList<RID>>();
+				  ArrayList<DataEntry> entries = null;
+
+				  // Check the filter and read the whole chain once, with the bucket latched
+				  boolean loading = !directory.isLoaded(slot);
+				  StampedLock bucketLatch = getBucketLatch(slot);
+				  long bucketStamp = loading ? latchBucket(slot) : bucketLatch.readLock();
+				  try
+				  {
+					  if (loading)
+					  {
+						  directory.load(slot);
+					  }
+
+					  for (int i : bucket.getValue())
+					  {
+						  if (directory.mayContain(slot, keys[i]))
+						  {
+							  matches.put(keys[i], results.get(i));
+						  }
+					  }
+
+					  PageId primaryBucketId = new PageId(directory.getBucketId(slot));
+
+					  if (!matches.isEmpty() && INVALID_PAGEID != primaryBucketId.pid)
+					  {
+						  HashBucketPage primaryBucketPage = new HashBucketPage();
+						  pages.pinPage(primaryBucketId, primaryBucketPage, PIN_DISKIO);
+						  entries = primaryBucketPage.getEntries(pages);
+						  pages.unpinPage(primaryBucketId, UNPIN_CLEAN);
+					  }
+				  }
+				  finally
+				  {
+					  bucketLatch.unlock(bucketStamp);
+				  }
+
+				  if (null == entries)
+				  {
+					  // The bucket was never allocated, or holds none of the keys
+					  continue;
+				  }
+
+				  for (DataEntry entry : entries)
+				  {
+					  ArrayList<RID> rids = matches.get(entry.key);
+
+					  if (null != rids)
+					  {
+						  rids.add(entry.rid);
+					  }
+				  }
+
+				  // Keys asked for more than once get their own copy of the matches
+				  for (int i : bucket.getValue())
+				  {
+					  if (matches.containsKey(keys[i]) && results.get(i) != matches.get(keys[i]))
+					  {
+						  results.set(i, new ArrayList<RID>(matches.get(keys[i])));
+					  }
+				  }
+			  }
+		  }
+	  }
+	  finally
+	  {
+		  structureLatch.unlockRead(structureStamp);
+	  }
+
+	  return results;
+
+  } // public ArrayList<ArrayList<RID>> lookupBatch(SearchKey[] keys)
+
+  /**
+   * Returns the name of the index file.
+   */
+  public String toString() {
+    return fileName;
+  }
+
+  /**
+   * Gets the number of entries in the index, summed from the entry counts kept
+   * in the directory's count pages, so only the buckets whose counts the
+   * directory does not know are read.  Under concurrent updates the sum may
+   * mix the state of the buckets at slightly different times.
+   */
+  public long size() {
+
+	  long entryCount = 0;
+
+	  long structureStamp = structureLatch.readLock();
+	  try
+	  {
+		  for (int i = 0; i < directory.getSlotCount(); i++)
+		  {
+			  if (i < (1 << getSlotDepth(i)))
+			  {
+				  // Slots sharing their bucket with a lower slot are skipped
+				  entryCount += getEntryCount(directory, i);
+			  }
+		  }
+
+		  if (null != file.resizeDirectory)
+		  {
+			  // Add the buckets already migrated by an online resize
+			  for (int i = 0; i < file.resizeDirectory.getSlotCount(); i++)
+			  {
+				  entryCount += getEntryCount(file.resizeDirectory, i);
+			  }
+		  }
+	  }
+	  finally
+	  {
+		  structureLatch.unlockRead(structureStamp);
+	  }
+
+	  return entryCount;
+
+  } // public long size()
+
+  /**
+   * Gets the number of entries in the bucket that the given key hashes to,
+   * which bounds the number of its matches, without reading any bucket page
+   * once the directory has loaded that bucket.
+   */
+  public int getBucketEntryCount(SearchKey key) {
+
+	  long structureStamp = structureLatch.readLock();
+	  try
+	  {
+		  HashDirectory directory = getDirectory(key);
+
+		  return getEntryCount(directory, getSlot(directory, key));
+	  }
+	  finally
+	  {
+		  structureLatch.unlockRead(structureStamp);
+	  }
+
+  } // public int getBucketEntryCount(SearchKey key)
+
+  /**
+   * Gets the entry count of a directory slot, with the bucket's latch held so
+   * the count is the one the last change to the bucket left: in shared mode,
+   * or exclusively when the directory does not know the slot's counts and has
+   * to load the slot.  The caller holds the structure latch, so known counts
+   * stay known.
+   */
+  protected int getEntryCount(HashDirectory directory, int slot) {
+
+	  StampedLock bucketLatch = getBucketLatch(slot);
+	  long bucketStamp = directory.hasCounts(slot) ? bucketLatch.readLock() : latchBucket(slot);
+	  try
+	  {
+		  return directory.getEntryCount(slot);
+	  }
+	  finally
+	  {
+		  bucketLatch.unlock(bucketStamp);
+	  }
+
+  } // protected int getEntryCount(HashDirectory directory, int slot)
+
+  /**
+   * Gets the entries and pages of every bucket from the counts kept in the
+   * directory, only reading the buckets whose counts it does not know.
+   * The index keeps running meanwhile: the structure latch is held in shared
+   * mode, and each bucket's latch while its counts are read.  The fill factor
+   * is not known, since it takes reading the pages; see measureStatistics.
+   */
+  public HashIndexStats getStatistics() {
+	  return collectStatistics(false);
+  }
+
+  /**
+   * Measures the entries and pages of every bucket like getStatistics, but by
+   * reading each bucket page once, which also measures the fill factor.
+   */
+  public HashIndexStats measureStatistics() {
+	  return collectStatistics(true);
+  }
+
+  /**
+   * Gathers the statistics of every bucket, from the directory counts or by
+   * reading the bucket pages.
+   */
+  protected HashIndexStats collectStatistics(boolean readPages) {
+
+	  long structureStamp = structureLatch.readLock();
+	  try
+	  {
+		  int slotCount = directory.getSlotCount();
+		  HashIndexStats stats = new HashIndexStats(fileName, slotCount + (null == file.resizeDirectory ? 0 : file.resizeDirectory.getSlotCount()), readPages);
+
+		  for (int i = 0; i < slotCount; i++)
+		  {
+			  int slotDepth = getSlotDepth(i);
+
+			  if (i < (1 << slotDepth))
+			  {
+				  // Slots sharing their bucket with a lower slot are skipped
+				  measureBucket(stats, directory, i, slotDepth, readPages);
+			  }
+		  }
+
+		  if (null != file.resizeDirectory)
+		  {
+			  // Add the buckets already migrated by an online resize
+			  stats.startResize(directory.getResizeNext(), slotCount);
+
+			  for (int i = 0; i < file.resizeDirectory.getSlotCount(); i++)
+			  {
+				  if (INVALID_PAGEID != file.resizeDirectory.getBucketId(i))
+				  {
+					  measureBucket(stats, file.resizeDirectory, i, file.resizeDirectory.getDepth(), readPages);
+				  }
+			  }
+		  }
+
+		  return stats;
+	  }
+	  finally
+	  {
+		  structureLatch.unlockRead(structureStamp);
+	  }
+
+  } // protected HashIndexStats collectStatistics(boolean readPages)
+
+  /**
+   * Adds the entries and pages of the bucket of a directory slot to the
+   * statistics, either from the slot's counts or by walking its chain once.
+   * The bucket's latch is held in shared mode, or exclusively when the counts
+   * are needed and the directory does not know them yet.  The caller
+   * holds the structure latch.
+   */
+  protected void measureBucket(HashIndexStats stats, HashDirectory directory, int slot, int slotDepth, boolean readPages) {
+
+	  int entryCount = 0;
+	  int pageCount = 0;
+	  int usedBytes = 0;
+
+	  StampedLock bucketLatch = getBucketLatch(slot);
+	  long bucketStamp = readPages || directory.hasCounts(slot) ? bucketLatch.readLock() : latchBucket(slot);
+	  try
+	  {
+		  if (!readPages)
+		  {
+			  entryCount = directory.getEntryCount(slot);
+			  pageCount = directory.getChainLength(slot);
+		  }
+		  else
+		  {
+			  PageId pageId = new PageId(directory.getBucketId(slot));
+
+			  while (INVALID_PAGEID != pageId.pid)
+			  {
+				  HashBucketPage page = new HashBucketPage();
+				  pages.pinPage(pageId, page, PIN_DISKIO);
+
+				  pageCount++;
+				  entryCount += page.getEntryCount();
+				  usedBytes += HashBucketPage.PAGE_BYTES - page.getFreeSpace();
+
+				  PageId nextPageId = page.getNextPage();
+				  pages.unpinPage(pageId, UNPIN_CLEAN);
+				  pageId = nextPageId;
+			  }
+		  }
+	  }
+	  finally
+	  {
+		  bucketLatch.unlock(bucketStamp);
+	  }
+
+	  stats.addBucket(slot, slotDepth, entryCount, pageCount, usedBytes);
+
+  } // protected void measureBucket(HashIndexStats stats, HashDirectory directory, int slot, int slotDepth, boolean readPages)
+
+  /**
+   * Prints a high-level view of the directory, namely which buckets are
+   * allocated and how many entries are stored in each one, from the counts
+   * kept in the directory, like getStatistics.  The summary is headed by the
+   * index file name, or by "(temporary index)" for an index without a file
+   * name.  Sample output:
+   * 
+   * <pre>
+   * IX_Customers
+   * ------------
+   * 0000000 : 35
+   * 0000001 : null
+   * 0000010 : 27
+   * ...
+   * 1111111 : 42
+   * </pre>
+   * 
+   * While the index is being resized, the buckets already migrated follow
+   * under a "Resizing" line, and a footer gives the total number of entries
+   * of both directories.
+   */
+  public void printSummary() {
+
+	  HashIndexStats stats = getStatistics();
+
+	  // Print header, temporary indexes have no file name to show
+	  boolean temporary = null == fileName || 0 == fileName.length();
+	  System.out.println((temporary ? "(temporary index)" : fileName) + "\n");
+	  System.out.println("------------\n");
+
+	  int resizeStart = stats.isResizing() ? stats.getResizeStart() : stats.getBucketCount();
+	  printBuckets(stats, 0, resizeStart);
+
+	  if (stats.isResizing())
+	  {
+		  // Print the buckets already migrated by an online resize, and the total of both directories
+		  System.out.println("------------\n");
+		  System.out.println("Resizing : " + stats.getResizeNext() + " of " + stats.getSlotCount() + " buckets migrated\n");
+		  printBuckets(stats, resizeStart, stats.getBucketCount());
+
+		  System.out.println("------------\n");
+		  System.out.println("Total : " + stats.getTotalEntries() + "\n");
 	  }
-	  // Unpin our directory page to leave it as we found it
-	  Minibase.BufferManager.unpinPage(headId, UNPIN_CLEAN);
 
   } // public void printSummary()
 
+  /**
+   * Prints the hash bits and the entry count of the buckets of a snapshot
+   * from the given one up to (not including) the end one, for printSummary.
+   */
+  protected void printBuckets(HashIndexStats stats, int from, int to) {
+
+	  for (int i = from; i < to; i++)
+	  {
+		  // A bucket with no primary bucket page prints as null
+		  String numberOfEntries = 0 == stats.getChainLength(i) ? "null" : Integer.toString(stats.getEntryCount(i));
+		  System.out.println(stats.getHashBits(i) + " : " + numberOfEntries + "\n");
+	  }
+
+  } // protected void printBuckets(HashIndexStats stats, int from, int to)
+
 } // public class HashIndex implements GlobalConst
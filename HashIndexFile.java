@@ -0,0 +1,144 @@
+package index;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+import global.GlobalConst;
+import global.PageId;
+
+/**
+ * The in-memory state of an open hash index file, shared by every HashIndex
+ * open on that file: the directory, with the slots, counts and filters it
+ * keeps in memory, the directory being resized to, and the latches that
+ * order the operations on the file.  Two HashIndex objects opened on the same
+ * file therefore see each other's changes and wait for each other, instead of
+ * each allocating its own buckets for the same slots.
+ * <br><br>
+ * Open files are registered by page store and header page id.  The registry
+ * only holds them weakly, so a file nobody has open any more is dropped, and
+ * is read from its pages again the next time it is opened.  Temporary index
+ * files are never registered, since they can not be opened twice.
+ */
+class HashIndexFile implements GlobalConst {
+
+	// Open files of each page store, by header page id
+	protected static final Map<PageStore, Map<Integer, WeakReference<HashIndexFile>>> OPEN_FILES =
+			new WeakHashMap<PageStore, Map<Integer, WeakReference<HashIndexFile>>>();
+
+	/** Directory of the primary bucket pages. */
+	protected final HashDirectory directory;
+
+	/** Directory being migrated to by an online resize, or null. */
+	protected volatile HashDirectory resizeDirectory;
+
+	/** Latch on the directory's layout, exclusive while buckets are split or migrated. */
+	protected final StampedLock structureLatch = new StampedLock();
+
+	/** Latches on the buckets, the bucket of slot i using latch i % HashIndex.LATCH_STRIPES. */
+	protected final StampedLock[] bucketLatches = HashIndex.createLatches(HashIndex.LATCH_STRIPES);
+
+	/** Number of optimistic readers walking the buckets of each latch. */
+	protected final LongAdder[] optimisticReaders = HashIndex.createReaderCounts(HashIndex.LATCH_STRIPES);
+
+	/** Writer parked until the optimistic readers of each latch are done, or null. */
+	protected final AtomicReferenceArray<Thread> readerWaiters = new AtomicReferenceArray<Thread>(HashIndex.LATCH_STRIPES);
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Wraps an open directory, without registering it, and opens the directory
+   * being resized to if a resize was left in progress.
+   */
+  public HashIndexFile(HashDirectory directory) {
+
+	  this.directory = directory;
+
+	  if (INVALID_PAGEID != directory.getResizeHeadId())
+	  {
+		  // Pick up the online resize where it was left
+		  resizeDirectory = new HashDirectory(directory.pages, directory.allocator, new PageId(directory.getResizeHeadId()));
+	  }
+
+  } // public HashIndexFile(HashDirectory directory)
+
+  /**
+   * Gets the open file whose header page is at the given page id, opening its
+   * directory and registering it unless it is open already.
+   */
+  public static HashIndexFile open(PageStore pages, PageAllocator allocator, PageId headId) {
+
+	  synchronized (OPEN_FILES)
+	  {
+		  Map<Integer, WeakReference<HashIndexFile>> files = OPEN_FILES.get(pages);
+		  WeakReference<HashIndexFile> reference = null == files ? null : files.get(headId.pid);
+		  HashIndexFile file = null == reference ? null : reference.get();
+
+		  if (null == file)
+		  {
+			  file = register(new HashDirectory(pages, allocator, headId));
+		  }
+
+		  return file;
+	  }
+
+  } // public static HashIndexFile open(PageStore pages, PageAllocator allocator, PageId headId)
+
+  /**
+   * Registers a directory that was just created or opened as an open file,
+   * dropping the files of its page store that nobody has open any more.
+   */
+  public static HashIndexFile register(HashDirectory directory) {
+
+	  HashIndexFile file = new HashIndexFile(directory);
+
+	  synchronized (OPEN_FILES)
+	  {
+		  Map<Integer, WeakReference<HashIndexFile>> files = OPEN_FILES.get(directory.pages);
+
+		  if (null == files)
+		  {
+			  files = new HashMap<Integer, WeakReference<HashIndexFile>>();
+			  OPEN_FILES.put(directory.pages, files);
+		  }
+
+		  for (Iterator<WeakReference<HashIndexFile>> it = files.values().iterator(); it.hasNext(); )
+		  {
+			  if (null == it.next().get())
+			  {
+				  it.remove();
+			  }
+		  }
+
+		  files.put(directory.getHeadId().pid, new WeakReference<HashIndexFile>(file));
+	  }
+
+	  return file;
+
+  } // public static HashIndexFile register(HashDirectory directory)
+
+  /**
+   * Drops the file from the registry once it has been deleted, so its header
+   * page id can be reused by another file.
+   */
+  public void unregister() {
+
+	  synchronized (OPEN_FILES)
+	  {
+		  Map<Integer, WeakReference<HashIndexFile>> files = OPEN_FILES.get(directory.pages);
+		  WeakReference<HashIndexFile> reference = null == files ? null : files.get(directory.getHeadId().pid);
+
+		  if (null != reference && this == reference.get())
+		  {
+			  files.remove(directory.getHeadId().pid);
+		  }
+	  }
+
+  } // public void unregister()
+
+} // class HashIndexFile implements GlobalConst
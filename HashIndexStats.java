@@ -0,0 +1,325 @@
+package index;
+
+import java.util.Arrays;
+
+/**
+ * A snapshot of the shape of a HashIndex: the number of entries and pages of
+ * every bucket, and totals derived from them.  It is returned by
+ * HashIndex.getStatistics, which takes the counts kept in the directory
+ * (reading only the buckets whose counts it does not know), and by
+ * HashIndex.measureStatistics, which reads every bucket page once and also
+ * measures the fill factor.  Either goes one bucket at a time while other
+ * operations keep running, so under concurrent updates the totals may mix the
+ * state of the index at slightly different times, but every bucket is
+ * measured as a whole.
+ * <br><br>
+ * Buckets are listed in the order of their lowest directory slot.  While the
+ * index is being resized, the buckets already migrated to the new directory
+ * follow, from getResizeStart on.
+ */
+public class HashIndexStats {
+
+	/** File name of the index. */
+	protected String fileName;
+
+	/** Number of buckets measured. */
+	protected int bucketCount;
+
+	/** Lowest directory slot, and number of hash bits, of each bucket. */
+	protected int[] bucketSlots;
+	protected int[] bucketDepths;
+
+	/** Number of entries of each bucket. */
+	protected int[] entryCounts;
+
+	/** Number of pages in the chain of each bucket, 0 if it has no primary page. */
+	protected int[] chainLengths;
+
+	/** Bytes used by entries, and their slots, over all pages. */
+	protected long usedBytes;
+
+	/** Whether the bucket pages were read, which measures usedBytes. */
+	protected boolean pagesRead;
+
+	/** First bucket of the new directory while resizing, or -1. */
+	protected int resizeStart;
+
+	/** Number of slots already migrated, and number of slots of the old directory. */
+	protected int resizeNext;
+	protected int slotCount;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Creates empty statistics, with room for the given number of buckets.
+   * Used by HashIndex.getStatistics and HashIndex.measureStatistics.
+   */
+  protected HashIndexStats(String fileName, int maxBucketCount, boolean pagesRead) {
+
+	  this.fileName = fileName;
+	  this.pagesRead = pagesRead;
+	  bucketSlots = new int[maxBucketCount];
+	  bucketDepths = new int[maxBucketCount];
+	  entryCounts = new int[maxBucketCount];
+	  chainLengths = new int[maxBucketCount];
+	  resizeStart = -1;
+
+  } // protected HashIndexStats(String fileName, int maxBucketCount, boolean pagesRead)
+
+  /**
+   * Records the measures of one more bucket.
+   */
+  protected void addBucket(int slot, int depth, int entryCount, int chainLength, int bucketUsedBytes) {
+
+	  bucketSlots[bucketCount] = slot;
+	  bucketDepths[bucketCount] = depth;
+	  entryCounts[bucketCount] = entryCount;
+	  chainLengths[bucketCount] = chainLength;
+	  usedBytes += bucketUsedBytes;
+	  bucketCount++;
+
+  } // protected void addBucket(int slot, int depth, int entryCount, int chainLength, int bucketUsedBytes)
+
+  /**
+   * Records that the next buckets are those of the new directory of an online
+   * resize, which has migrated resizeNext of the slotCount old slots.
+   */
+  protected void startResize(int resizeNext, int slotCount) {
+
+	  resizeStart = bucketCount;
+	  this.resizeNext = resizeNext;
+	  this.slotCount = slotCount;
+
+  } // protected void startResize(int resizeNext, int slotCount)
+
+  /**
+   * Gets the file name of the index.
+   */
+  public String getFileName() {
+	  return fileName;
+  }
+
+  /**
+   * Gets the number of buckets, each counted once however many slots share it.
+   */
+  public int getBucketCount() {
+	  return bucketCount;
+  }
+
+  /**
+   * Gets the hash bits that select a bucket, padded with leading zeros.  The
+   * single bucket of an index of depth 0 is selected by no bits, so it gets
+   * its slot number, 0, instead of an empty string.
+   */
+  public String getHashBits(int bucket) {
+
+	  if (0 == bucketDepths[bucket])
+	  {
+		  return Integer.toString(bucketSlots[bucket], 2);
+	  }
+
+	  return Integer.toString(bucketSlots[bucket] | (1 << bucketDepths[bucket]), 2).substring(1);
+
+  } // public String getHashBits(int bucket)
+
+  /**
+   * Gets the number of entries of a bucket.
+   */
+  public int getEntryCount(int bucket) {
+	  return entryCounts[bucket];
+  }
+
+  /**
+   * Gets the number of pages in the chain of a bucket, 0 if it has no primary page.
+   */
+  public int getChainLength(int bucket) {
+	  return chainLengths[bucket];
+  }
+
+  /**
+   * Gets the number of overflow pages of a bucket, beyond its primary page.
+   */
+  public int getOverflowPages(int bucket) {
+	  return Math.max(0, chainLengths[bucket] - 1);
+  }
+
+  /**
+   * Gets the number of entries of every bucket.
+   */
+  public int[] getEntryCounts() {
+	  return Arrays.copyOf(entryCounts, bucketCount);
+  }
+
+  /**
+   * Gets the number of pages in the chain of every bucket.
+   */
+  public int[] getChainLengths() {
+	  return Arrays.copyOf(chainLengths, bucketCount);
+  }
+
+  /**
+   * Gets the number of overflow pages of every bucket.
+   */
+  public int[] getOverflowPages() {
+
+	  int[] overflowPages = new int[bucketCount];
+
+	  for (int i = 0; i < bucketCount; i++)
+	  {
+		  overflowPages[i] = getOverflowPages(i);
+	  }
+
+	  return overflowPages;
+
+  } // public int[] getOverflowPages()
+
+  /**
+   * Gets the number of entries in the index.
+   */
+  public long getTotalEntries() {
+
+	  long totalEntries = 0;
+
+	  for (int i = 0; i < bucketCount; i++)
+	  {
+		  totalEntries += entryCounts[i];
+	  }
+
+	  return totalEntries;
+
+  } // public long getTotalEntries()
+
+  /**
+   * Gets the number of bucket pages in the index, primary and overflow.
+   */
+  public long getTotalPages() {
+
+	  long totalPages = 0;
+
+	  for (int i = 0; i < bucketCount; i++)
+	  {
+		  totalPages += chainLengths[i];
+	  }
+
+	  return totalPages;
+
+  } // public long getTotalPages()
+
+  /**
+   * Gets the number of overflow pages in the index.
+   */
+  public long getTotalOverflowPages() {
+
+	  long overflowPages = 0;
+
+	  for (int i = 0; i < bucketCount; i++)
+	  {
+		  overflowPages += getOverflowPages(i);
+	  }
+
+	  return overflowPages;
+
+  } // public long getTotalOverflowPages()
+
+  /**
+   * Gets the number of pages of the longest chain.
+   */
+  public int getMaxChainLength() {
+
+	  int maxChainLength = 0;
+
+	  for (int i = 0; i < bucketCount; i++)
+	  {
+		  maxChainLength = Math.max(maxChainLength, chainLengths[i]);
+	  }
+
+	  return maxChainLength;
+
+  } // public int getMaxChainLength()
+
+  /**
+   * Gets the average number of pages per chain, over every bucket.
+   */
+  public double getAverageChainLength() {
+	  return 0 == bucketCount ? 0 : (double) getTotalPages() / bucketCount;
+  }
+
+  /**
+   * Gets the fraction of the bucket page space taken by entries and their
+   * slots, between 0 and 1, or -1 if the bucket pages were not read.
+   */
+  public double getFillFactor() {
+
+	  long totalPages = getTotalPages();
+
+	  if (!pagesRead)
+	  {
+		  return -1;
+	  }
+
+	  return 0 == totalPages ? 0 : (double) usedBytes / (totalPages * HashBucketPage.PAGE_BYTES);
+
+  } // public double getFillFactor()
+
+  /**
+   * Gets the number of buckets with no entries, allocated or not.
+   */
+  public int getEmptyBucketCount() {
+
+	  int emptyBuckets = 0;
+
+	  for (int i = 0; i < bucketCount; i++)
+	  {
+		  if (0 == entryCounts[i])
+		  {
+			  emptyBuckets++;
+		  }
+	  }
+
+	  return emptyBuckets;
+
+  } // public int getEmptyBucketCount()
+
+  /**
+   * Tells whether the index was being resized.
+   */
+  public boolean isResizing() {
+	  return -1 != resizeStart;
+  }
+
+  /**
+   * Gets the first bucket of the new directory while resizing, or -1.
+   */
+  public int getResizeStart() {
+	  return resizeStart;
+  }
+
+  /**
+   * Gets the number of old directory slots already migrated while resizing.
+   */
+  public int getResizeNext() {
+	  return resizeNext;
+  }
+
+  /**
+   * Gets the number of slots of the old directory while resizing.
+   */
+  public int getSlotCount() {
+	  return slotCount;
+  }
+
+  /**
+   * Returns a one line summary of the totals, for logs and monitoring.
+   */
+  public String toString() {
+
+	  // The fill factor is only known once the pages were read
+	  String fill = pagesRead ? ", fill " + Math.round(100 * getFillFactor()) + "%" : "";
+
+	  return fileName + " : " + bucketCount + " buckets, " + getTotalEntries() + " entries, " + getTotalPages() + " pages ("
+			  + getTotalOverflowPages() + " overflow), max chain " + getMaxChainLength() + ", average chain "
+			  + Math.round(100 * getAverageChainLength()) / 100.0 + fill + ", " + getEmptyBucketCount() + " empty buckets";
+
+  } // public String toString()
+
+} // public class HashIndexStats
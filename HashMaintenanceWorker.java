@@ -0,0 +1,278 @@
+package index;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import global.GlobalConst;
+import global.SearchKey;
+
+/**
+ * A background worker that keeps the overflow chains of a HashIndex short,
+ * so that foreground operations never pay for compaction themselves.
+ * <br><br>
+ * Deletes report the buckets they leave sparser.  During idle periods (no
+ * insert or lookup for a while) the worker inspects those
+ * buckets one at a time, and compacts the ones whose pages hold fewer than
+ * minEntriesPerPage entries on average.  Every page it reads or writes counts
+ * against an I/O budget of pagesPerSecond, and the worker sleeps to stay
+ * within it.
+ * <br><br>
+ * For each bucket the worker holds the index's structure latch in shared mode
+ * and the bucket's latch exclusively, like a delete does, so it never runs in
+ * the middle of another operation on that bucket.
+ * <br><br>
+ * If compaction fails with an exception, the worker stops and detaches from
+ * its index, so that a new worker can be started, and the exception goes to
+ * the uncaught exception handler of the worker's thread, which reports it.
+ */
+public class HashMaintenanceWorker implements Runnable, GlobalConst {
+
+	/** Index whose buckets are compacted. */
+	protected HashIndex index;
+
+	/** How long the index must go without an insert or lookup before the worker runs. */
+	protected long idleMillis;
+
+	/** Number of pages the worker may read or write per second. */
+	protected int pagesPerSecond;
+
+	/** Average number of entries per page below which a bucket is compacted. */
+	protected int minEntriesPerPage;
+
+	/** Buckets reported by deletes, by primary page id, each with a key hashing to it. */
+	protected LinkedHashMap<Integer, SearchKey> candidates;
+
+	/** Thread running the worker, or null if it is stopped. */
+	protected Thread thread;
+
+	/** Whether the worker should keep running. */
+	protected volatile boolean running;
+
+	/** Number of pages freed since the worker started. */
+	protected volatile long freedCount;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Creates a worker for the given index, which does nothing until started.
+   *
+   * @throws IllegalArgumentException if a setting is not positive
+   */
+  public HashMaintenanceWorker(HashIndex index, long idleMillis, int pagesPerSecond, int minEntriesPerPage) {
+
+	  if (idleMillis <= 0 || pagesPerSecond <= 0 || minEntriesPerPage <= 0)
+	  {
+		  throw new IllegalArgumentException("The maintenance settings must be positive!");
+	  }
+
+	  this.index = index;
+	  this.idleMillis = idleMillis;
+	  this.pagesPerSecond = pagesPerSecond;
+	  this.minEntriesPerPage = minEntriesPerPage;
+	  candidates = new LinkedHashMap<Integer, SearchKey>();
+
+  } // public HashMaintenanceWorker(HashIndex index, long idleMillis, int pagesPerSecond, int minEntriesPerPage)
+
+  /**
+   * Attaches the worker to its index and starts it on a daemon thread.
+   *
+   * @throws IllegalStateException if the worker is already running or the
+   * index already has a worker
+   */
+  public void start() {
+
+	  if (running || !index.attachMaintenanceWorker(this))
+	  {
+		  throw new IllegalStateException("The hash index already has a maintenance worker!");
+	  }
+	  running = true;
+
+	  thread = new Thread(this, "HashMaintenanceWorker " + index);
+	  thread.setDaemon(true);
+	  thread.start();
+
+  } // public void start()
+
+  /**
+   * Stops the worker and detaches it from its index, waiting for the bucket
+   * being compacted (if any).  Must not be called while holding a latch of
+   * the index.
+   */
+  public void stop() {
+
+	  running = false;
+	  index.detachMaintenanceWorker(this);
+
+	  if (null != thread)
+	  {
+		  thread.interrupt();
+
+		  // The worker may be waiting for the structure latch, which deleteFile only takes after this
+		  if (Thread.currentThread() != thread)
+		  {
+			  try
+			  {
+				  thread.join();
+			  }
+			  catch (InterruptedException e)
+			  {
+				  Thread.currentThread().interrupt();
+			  }
+		  }
+		  thread = null;
+	  }
+
+  } // public void stop()
+
+  /**
+   * Gets the number of pages freed since the worker started.
+   */
+  public long getFreedCount() {
+	  return freedCount;
+  }
+
+  /**
+   * Records that an entry was deleted from the bucket with the given primary
+   * page, so the worker inspects that bucket later.  Called by HashIndex.
+   */
+  protected void bucketChanged(int primaryBucketPid, SearchKey key) {
+
+	  synchronized (candidates)
+	  {
+		  if (!candidates.containsKey(primaryBucketPid))
+		  {
+			  candidates.put(primaryBucketPid, key);
+		  }
+	  }
+
+  } // protected void bucketChanged(int primaryBucketPid, SearchKey key)
+
+  /**
+   * Inspects and compacts the reported buckets while the index is idle, until
+   * the worker is stopped or compaction fails, detaching the worker from its
+   * index either way.
+   */
+  public void run() {
+
+	  try
+	  {
+		  while (running)
+		  {
+			  // Wait for an idle period
+			  Thread.sleep(idleMillis);
+
+			  while (running && index.isIdle(idleMillis))
+			  {
+				  SearchKey key = nextCandidate();
+
+				  if (null == key)
+				  {
+					  break;
+				  }
+
+				  int pageCount;
+
+				  long structureStamp = index.structureLatch.readLock();
+				  try
+				  {
+					  if (!running || !index.isIdle(idleMillis))
+					  {
+						  // Foreground work came in, so leave the bucket for the next idle period
+						  HashDirectory directory = index.getDirectory(key);
+						  bucketChanged(directory.getBucketId(index.getSlot(directory, key)), key);
+						  break;
+					  }
+
+					  pageCount = maintainBucket(key);
+				  }
+				  finally
+				  {
+					  index.structureLatch.unlockRead(structureStamp);
+				  }
+
+				  // Stay within the I/O budget
+				  Thread.sleep(pageCount * 1000L / pagesPerSecond);
+			  }
+		  }
+	  }
+	  catch (InterruptedException e)
+	  {
+		  // Stopped while waiting
+	  }
+	  finally
+	  {
+		  // A failed compaction ends the thread too, so let a new worker take over;
+		  // the exception still reaches the thread's uncaught exception handler
+		  running = false;
+		  index.detachMaintenanceWorker(this);
+	  }
+
+  } // public void run()
+
+  /**
+   * Removes the oldest reported bucket from the candidates.
+   *
+   * @return a key hashing to that bucket, or null if there are no candidates
+   */
+  protected SearchKey nextCandidate() {
+
+	  synchronized (candidates)
+	  {
+		  Iterator<Map.Entry<Integer, SearchKey>> iterator = candidates.entrySet().iterator();
+
+		  if (!iterator.hasNext())
+		  {
+			  return null;
+		  }
+
+		  SearchKey key = iterator.next().getValue();
+		  iterator.remove();
+
+		  return key;
+	  }
+
+  } // protected SearchKey nextCandidate()
+
+  /**
+   * Compacts the bucket that the given key hashes to if its pages hold fewer
+   * than minEntriesPerPage entries on average, holding the bucket's latch
+   * exclusively.  The caller holds the index's structure latch.
+   *
+   * @return the number of pages read or written, counted against the budget
+   */
+  protected int maintainBucket(SearchKey key) {
+
+	  HashDirectory directory = index.getDirectory(key);
+	  int slot = index.getSlot(directory, key);
+	  long bucketStamp = index.latchBucket(slot);
+	  try
+	  {
+		  if (INVALID_PAGEID == directory.getBucketId(slot))
+		  {
+			  return 0;
+		  }
+
+		  // The directory counts measure the chain without reading it
+		  int pageCount = directory.getChainLength(slot);
+		  int entryCount = directory.getEntryCount(slot);
+
+		  if (pageCount <= 1 || entryCount >= pageCount * minEntriesPerPage)
+		  {
+			  return 0;
+		  }
+
+		  // Compacting reads the chain once, and writes what is left of it if that frees pages
+		  int freed = index.compactBucket(directory, slot);
+		  freedCount += freed;
+
+		  return pageCount + (freed > 0 ? pageCount - freed : 0);
+	  }
+	  finally
+	  {
+		  index.getBucketLatch(slot).unlockWrite(bucketStamp);
+	  }
+
+  } // protected int maintainBucket(SearchKey key)
+
+} // public class HashMaintenanceWorker implements Runnable, GlobalConst
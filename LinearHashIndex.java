@@ -0,0 +1,248 @@
+package index;
+
+import global.PageId;
+import global.RID;
+import global.SearchKey;
+
+/**
+ * <h3>Minibase Linear Hash Index</h3>
+ * This unclustered index implements linear hashing as described on pages 379
+ * to 383 of the textbook (3rd edition).  Buckets are split one at a time in
+ * round robin order, so the index grows smoothly instead of doubling all at
+ * once: every insert that adds an overflow page to a bucket's chain splits
+ * the bucket at the split pointer, until the directory is full.
+ * <br><br>
+ * The directory depth is the level and the directory next field is the split
+ * pointer; the directory has one slot for each of the 2^level + next buckets.
+ * A key is hashed on level bits, or on level + 1 bits when that bucket has
+ * already been split this round.
+ */
+public class LinearHashIndex extends HashIndex {
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Opens a linear index file given its name, or creates a new index file
+   * if the name doesn't exist; a null name produces a temporary index file.
+   * A new index starts at level 0 with a single empty bucket.
+   */
+  public LinearHashIndex(String fileName) {
+
+	  super(fileName, 0);
+
+  } // public LinearHashIndex(String fileName)
+
+  /**
+   * Opens an index file given its name, or creates a new index file with a
+   * level of depth (and 2^depth empty buckets) if the name doesn't exist.
+   */
+  public LinearHashIndex(String fileName, int depth) {
+
+	  super(fileName, depth);
+
+  } // public LinearHashIndex(String fileName, int depth)
+
+  /**
+   * Opens or creates an index file like LinearHashIndex(String, int), in the
+   * given page store and allocator instead of the Minibase database.
+   */
+  public LinearHashIndex(String fileName, int depth, PageStore pages, PageAllocator allocator) {
+
+	  super(fileName, depth, pages, allocator);
+
+  } // public LinearHashIndex(String fileName, int depth, PageStore pages, PageAllocator allocator)
+
+  /**
+   * Gets the hashing scheme of the index.
+   */
+  protected int getScheme() {
+	  return HashDirectory.LINEAR_SCHEME;
+  }
+
+  /**
+   * Creates an empty linear HashIndex file with 2^depth primary bucket
+   * pages.  Used by HashIndex constructor.
+   */
+  protected void CreateEmptyHashIndexFile(int depth) {
+
+	  // Allocate the index file, with one bucket for each of the 2^depth slots
+	  directory = HashDirectory.create(pages, allocator, HashDirectory.LINEAR_SCHEME, depth, 1 << depth);
+	  headId = directory.getHeadId();
+
+	  for (int i = 0; i < (1 << depth); i++)
+	  {
+		  allocateBucket(i);
+	  }
+
+	  if (null != fileName && fileName.length() > 0)
+	  {
+		  // Only add the file entry when we don't have a temporary file
+		  allocator.addFileEntry(fileName, headId);
+	  }
+
+  } // protected void CreateEmptyHashIndexFile(int depth)
+
+  /**
+   * Inserts a new data entry into the index file.  If the entry needs a new
+   * overflow page in its bucket, the bucket at the split pointer is split.
+   * Inserts into the overflow pages a bucket already has do not split, so a
+   * bucket that keeps taking entries does not split the index on every one.
+   *
+   * @throws IllegalArgumentException if the entry is too large
+   */
+  public void insertEntry(SearchKey key, RID rid) {
+
+	  if (key.getLength() > HashBucketPage.MAX_ENTRY_SIZE)
+	  {
+		  throw new IllegalArgumentException("Attempted to insert an entry that is too large!");
+	  }
+
+	  // Insert the entry, chaining an overflow page if needed
+	  boolean splitNeeded;
+
+	  long structureStamp = structureLatch.readLock();
+	  try
+	  {
+		  splitNeeded = insertIntoLatchedBucket(directory, getSlot(key), new DataEntry(key, rid))
+				  && directory.getSlotCount() < HashDirectory.MAX_SLOTS;
+	  }
+	  finally
+	  {
+		  structureLatch.unlockRead(structureStamp);
+	  }
+
+	  if (!splitNeeded)
+	  {
+		  // Either no page was added, or the directory is full and no split can help
+		  return;
+	  }
+
+	  // The entry needed a new overflow page, so split one bucket, which changes
+	  // the directory and waits for every other operation on the index
+	  structureStamp = latchStructure();
+	  try
+	  {
+		  if (directory.getSlotCount() < HashDirectory.MAX_SLOTS)
+		  {
+			  splitNextBucket();
+		  }
+	  }
+	  finally
+	  {
+		  structureLatch.unlockWrite(structureStamp);
+	  }
+
+  } // public void insertEntry(SearchKey key, RID rid)
+
+  /**
+   * Inserts a batch of new data entries into the index file one entry at a
+   * time, since every insert may split the bucket at the split pointer.
+   *
+   * @throws IllegalArgumentException if the arrays have different lengths or
+   * an entry is too large
+   */
+  public void insertBatch(SearchKey[] keys, RID[] rids) {
+
+	  if (keys.length != rids.length)
+	  {
+		  throw new IllegalArgumentException("Attempted to insert a batch with " + keys.length + " keys and " + rids.length + " rids!");
+	  }
+
+	  for (int i = 0; i < keys.length; i++)
+	  {
+		  insertEntry(keys[i], rids[i]);
+	  }
+
+  } // public void insertBatch(SearchKey[] keys, RID[] rids)
+
+  /**
+   * A linear hash index grows one bucket split at a time, so it can not be resized.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  public void beginResize(int depth) {
+	  throw new UnsupportedOperationException("A linear hash index resizes itself one bucket split at a time!");
+  }
+
+  /**
+   * Gets the bucket that the given key hashes to.
+   */
+  protected int getSlot(SearchKey key) {
+
+	  int level = directory.getDepth();
+	  int bucket = key.getHash(level);
+
+	  if (bucket < directory.getNext())
+	  {
+		  // This bucket has already been split this round, so use one more bit
+		  bucket = key.getHash(level + 1);
+	  }
+
+	  return bucket;
+
+  } // protected int getSlot(SearchKey key)
+
+  /**
+   * Gets the number of hash bits that select the given bucket.
+   */
+  protected int getSlotDepth(int slot) {
+
+	  int level = directory.getDepth();
+
+	  if (slot < directory.getNext() || slot >= (1 << level))
+	  {
+		  // Buckets split this round and their split images use one more bit
+		  return level + 1;
+	  }
+
+	  return level;
+
+  } // protected int getSlotDepth(int slot)
+
+  /**
+   * Splits the bucket at the split pointer: a new bucket is appended at
+   * 2^level + next, the entries whose hash on level + 1 bits points there are
+   * moved to it, and the split pointer advances (starting the next level once
+   * every bucket of this level has been split).  The caller holds the
+   * structure latch exclusively.
+   */
+  protected void splitNextBucket() {
+
+	  int level = directory.getDepth();
+	  int next = directory.getNext();
+	  int newBucket = (1 << level) + next;
+
+	  PageId oldBucketId = new PageId(directory.getBucketId(next));
+	  HashBucketPage oldBucketPage = new HashBucketPage();
+	  pages.pinPage(oldBucketId, oldBucketPage, PIN_DISKIO);
+
+	  PageId newBucketId = allocator.allocatePage();
+	  HashBucketPage newBucketPage = new HashBucketPage();
+	  pages.pinPage(newBucketId, newBucketPage, PIN_MEMCPY);
+
+	  // Move the entries from the whole chain, repacking the ones that stay
+	  boolean oldBucketDirty = oldBucketPage.moveEntries(newBucketPage, level + 1, newBucket, pages, allocator);
+
+	  pages.unpinPage(oldBucketId, oldBucketDirty ? UNPIN_DIRTY : UNPIN_CLEAN);
+	  pages.unpinPage(newBucketId, UNPIN_DIRTY);
+
+	  // Reference the new bucket and advance the split pointer
+	  directory.grow(newBucket + 1);
+	  directory.setBucketId(newBucket, newBucketId.pid);
+
+	  // Each half only keeps the filter bits of the entries it still holds, and
+	  // inserts start over at its primary page since the chain was rewritten
+	  rebuildSlot(next);
+	  rebuildSlot(newBucket);
+
+	  if (++next == (1 << level))
+	  {
+		  // Every bucket of this level has been split, start the next round
+		  directory.setDepth(level + 1);
+		  next = 0;
+	  }
+	  directory.setNext(next);
+
+  } // protected void splitNextBucket()
+
+} // public class LinearHashIndex extends HashIndex
@@ -0,0 +1,205 @@
+package index;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import global.GlobalConst;
+import global.Page;
+import global.PageId;
+
+/**
+ * A storage that keeps every page in memory, with no buffer pool and no
+ * I/O, so benchmarks and stress tests can measure the cost of the hash
+ * structures alone and run without a Minibase database.  A pinned page
+ * object points straight at the stored bytes, which are never evicted, so
+ * unpinning only drops the pin count.  Nothing survives the JVM.
+ * <br><br>
+ * Each page is locked on its own to count its pins, so threads working on
+ * different pages do not wait for each other.
+ */
+public class MemoryStorage implements PageStore, PageAllocator, GlobalConst {
+
+	/** Contents and pin count of each allocated page, by page id. */
+	protected ConcurrentHashMap<Integer, MemoryPage> pages;
+
+	/** First page id of each file in the library, by file name. */
+	protected ConcurrentHashMap<String, Integer> files;
+
+	/** Page id of the next page allocated. */
+	protected AtomicInteger nextPid;
+
+	/** Number of pages currently pinned. */
+	protected AtomicInteger pinnedCount;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Creates an empty storage.
+   */
+  public MemoryStorage() {
+
+	  pages = new ConcurrentHashMap<Integer, MemoryPage>();
+	  files = new ConcurrentHashMap<String, Integer>();
+	  nextPid = new AtomicInteger(1);
+	  pinnedCount = new AtomicInteger();
+
+  } // public MemoryStorage()
+
+  /**
+   * Pins a page, pointing the given page object at the stored bytes.
+   *
+   * @throws IllegalArgumentException if the page is not allocated
+   */
+  public void pinPage(PageId pageId, Page page, boolean skipRead) {
+
+	  MemoryPage memoryPage = getPage(pageId);
+
+	  synchronized (memoryPage)
+	  {
+		  if (skipRead)
+		  {
+			  System.arraycopy(page.getData(), 0, memoryPage.data, 0, PAGE_SIZE);
+		  }
+
+		  if (0 == memoryPage.pinCount++)
+		  {
+			  pinnedCount.incrementAndGet();
+		  }
+	  }
+
+	  page.setData(memoryPage.data);
+
+  } // public void pinPage(PageId pageId, Page page, boolean skipRead)
+
+  /**
+   * Unpins a page; the stored bytes are already up to date, dirty or not.
+   *
+   * @throws IllegalArgumentException if the page is not pinned
+   */
+  public void unpinPage(PageId pageId, boolean dirty) {
+
+	  MemoryPage memoryPage = getPage(pageId);
+
+	  synchronized (memoryPage)
+	  {
+		  if (0 == memoryPage.pinCount)
+		  {
+			  throw new IllegalArgumentException("Page " + pageId.pid + " is not pinned!");
+		  }
+
+		  if (0 == --memoryPage.pinCount)
+		  {
+			  pinnedCount.decrementAndGet();
+		  }
+	  }
+
+  } // public void unpinPage(PageId pageId, boolean dirty)
+
+  /**
+   * Deallocates a page, dropping its bytes.
+   *
+   * @throws IllegalArgumentException if the page is not allocated or still pinned
+   */
+  public void freePage(PageId pageId) {
+
+	  MemoryPage memoryPage = getPage(pageId);
+
+	  synchronized (memoryPage)
+	  {
+		  if (0 != memoryPage.pinCount)
+		  {
+			  throw new IllegalArgumentException("Page " + pageId.pid + " is still pinned!");
+		  }
+
+		  pages.remove(pageId.pid);
+	  }
+
+  } // public void freePage(PageId pageId)
+
+  public int getPinnedCount() {
+	  return pinnedCount.get();
+  }
+
+  /**
+   * Gets the number of pages allocated and not freed yet.
+   */
+  public int getPageCount() {
+	  return pages.size();
+  }
+
+  /**
+   * Allocates a new page, filled with zeroes.
+   */
+  public PageId allocatePage() {
+
+	  int pid = nextPid.getAndIncrement();
+	  pages.put(pid, new MemoryPage());
+
+	  return new PageId(pid);
+
+  } // public PageId allocatePage()
+
+  public PageId getFileEntry(String fileName) {
+
+	  Integer pid = files.get(fileName);
+
+	  return null == pid ? null : new PageId(pid);
+
+  } // public PageId getFileEntry(String fileName)
+
+  /**
+   * @throws IllegalArgumentException if the file already exists
+   */
+  public void addFileEntry(String fileName, PageId pageId) {
+
+	  if (null != files.putIfAbsent(fileName, pageId.pid))
+	  {
+		  throw new IllegalArgumentException("The file " + fileName + " already exists!");
+	  }
+
+  } // public void addFileEntry(String fileName, PageId pageId)
+
+  /**
+   * @throws IllegalArgumentException if there is no such file
+   */
+  public void deleteFileEntry(String fileName) {
+
+	  if (null == files.remove(fileName))
+	  {
+		  throw new IllegalArgumentException("The file " + fileName + " does not exist!");
+	  }
+
+  } // public void deleteFileEntry(String fileName)
+
+  /**
+   * Gets the stored page with the given id.
+   *
+   * @throws IllegalArgumentException if the page is not allocated
+   */
+  protected MemoryPage getPage(PageId pageId) {
+
+	  MemoryPage memoryPage = pages.get(pageId.pid);
+
+	  if (null == memoryPage)
+	  {
+		  throw new IllegalArgumentException("Page " + pageId.pid + " is not allocated!");
+	  }
+
+	  return memoryPage;
+
+  } // protected MemoryPage getPage(PageId pageId)
+
+  /**
+   * The bytes of a stored page, and the number of times it is pinned.
+   */
+  protected static class MemoryPage {
+
+	  /** Contents of the page. */
+	  protected byte[] data = new byte[PAGE_SIZE];
+
+	  /** Number of pins not unpinned yet. */
+	  protected int pinCount;
+
+  } // protected static class MemoryPage
+
+} // public class MemoryStorage implements PageStore, PageAllocator, GlobalConst
@@ -0,0 +1,98 @@
+package index;
+
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+/**
+ * The default storage of the hash package: pages go through the Minibase
+ * buffer manager, and are allocated and found by name through the Minibase
+ * disk manager, whichever database is open when a call is made.
+ * <br><br>
+ * The Minibase managers are not safe for concurrent use, so every call holds
+ * a lock shared by all MinibaseStorage objects, and the threads using the
+ * database take turns at the managers one call at a time.
+ */
+public class MinibaseStorage implements PageStore, PageAllocator {
+
+	// Lock held by every call to the Minibase managers, which are shared by the whole database
+	private static final Object MANAGER_LOCK = new Object();
+
+	/** The storage used by indexes and bulk loaders that are not given one. */
+	public static final MinibaseStorage DEFAULT = new MinibaseStorage();
+
+  // --------------------------------------------------------------------------
+
+  public void pinPage(PageId pageId, Page page, boolean skipRead) {
+
+	  synchronized (MANAGER_LOCK)
+	  {
+		  Minibase.BufferManager.pinPage(pageId, page, skipRead);
+	  }
+
+  } // public void pinPage(PageId pageId, Page page, boolean skipRead)
+
+  public void unpinPage(PageId pageId, boolean dirty) {
+
+	  synchronized (MANAGER_LOCK)
+	  {
+		  Minibase.BufferManager.unpinPage(pageId, dirty);
+	  }
+
+  } // public void unpinPage(PageId pageId, boolean dirty)
+
+  public void freePage(PageId pageId) {
+
+	  synchronized (MANAGER_LOCK)
+	  {
+		  Minibase.BufferManager.freePage(pageId);
+	  }
+
+  } // public void freePage(PageId pageId)
+
+  public int getPinnedCount() {
+
+	  synchronized (MANAGER_LOCK)
+	  {
+		  return Minibase.BufferManager.getNumBuffers() - Minibase.BufferManager.getNumUnpinned();
+	  }
+
+  } // public int getPinnedCount()
+
+  public PageId allocatePage() {
+
+	  synchronized (MANAGER_LOCK)
+	  {
+		  return Minibase.DiskManager.allocate_page();
+	  }
+
+  } // public PageId allocatePage()
+
+  public PageId getFileEntry(String fileName) {
+
+	  synchronized (MANAGER_LOCK)
+	  {
+		  return Minibase.DiskManager.get_file_entry(fileName);
+	  }
+
+  } // public PageId getFileEntry(String fileName)
+
+  public void addFileEntry(String fileName, PageId pageId) {
+
+	  synchronized (MANAGER_LOCK)
+	  {
+		  Minibase.DiskManager.add_file_entry(fileName, pageId);
+	  }
+
+  } // public void addFileEntry(String fileName, PageId pageId)
+
+  public void deleteFileEntry(String fileName) {
+
+	  synchronized (MANAGER_LOCK)
+	  {
+		  Minibase.DiskManager.delete_file_entry(fileName);
+	  }
+
+  } // public void deleteFileEntry(String fileName)
+
+} // public class MinibaseStorage implements PageStore, PageAllocator
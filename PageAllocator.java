@@ -0,0 +1,41 @@
+package index;
+
+import global.PageId;
+
+/**
+ * The hash package allocates its pages, and finds its index files by name,
+ * through a PageAllocator, like it would through the Minibase disk manager.
+ * Every index is given the allocator its file lives in when it is opened;
+ * pages are deallocated through PageStore.freePage.
+ * <br><br>
+ * Implementations must be safe for concurrent use.
+ */
+public interface PageAllocator {
+
+  /**
+   * Allocates a new page.
+   */
+  public PageId allocatePage();
+
+  /**
+   * Gets the first page of the file with the given name.
+   *
+   * @return the page id, or null if there is no such file
+   */
+  public PageId getFileEntry(String fileName);
+
+  /**
+   * Adds a file with the given name and first page to the library.
+   *
+   * @throws IllegalArgumentException if the file already exists
+   */
+  public void addFileEntry(String fileName, PageId pageId);
+
+  /**
+   * Removes the file with the given name from the library.
+   *
+   * @throws IllegalArgumentException if there is no such file
+   */
+  public void deleteFileEntry(String fileName);
+
+} // public interface PageAllocator
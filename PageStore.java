@@ -0,0 +1,46 @@
+package index;
+
+import global.Page;
+import global.PageId;
+
+/**
+ * The pages of the hash package are read and written through a PageStore,
+ * which lends the caller an in-memory copy of a page between pinPage and
+ * unpinPage, like the Minibase buffer manager does.  Every index is given
+ * the store its file lives in when it is opened.
+ * <br><br>
+ * Implementations must be safe for concurrent use, since the index operations
+ * of different threads pin pages at the same time.
+ */
+public interface PageStore {
+
+  /**
+   * Pins a page, pointing the given page object at its contents.  With
+   * skipRead (GlobalConst.PIN_MEMCPY) the page object's current contents are
+   * copied into the page instead of reading it, which is how a new page is
+   * first written.
+   *
+   * @throws IllegalArgumentException if the page is not allocated
+   */
+  public void pinPage(PageId pageId, Page page, boolean skipRead);
+
+  /**
+   * Unpins a page, which must be written back if dirty (GlobalConst.UNPIN_DIRTY).
+   *
+   * @throws IllegalArgumentException if the page is not pinned
+   */
+  public void unpinPage(PageId pageId, boolean dirty);
+
+  /**
+   * Deallocates a page.
+   *
+   * @throws IllegalArgumentException if the page is still pinned
+   */
+  public void freePage(PageId pageId);
+
+  /**
+   * Gets the number of pages currently pinned.
+   */
+  public int getPinnedCount();
+
+} // public interface PageStore
@@ -0,0 +1,375 @@
+package index;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import global.Minibase;
+import global.PageId;
+import global.RID;
+import global.SearchKey;
+
+/**
+ * JMH benchmarks of the hash index operations: insertEntry, deleteEntry, an
+ * equality scan (openScan and getNext until the end) and printSummary.
+ * <br><br>
+ * Each trial builds a static hash index of indexSize entries, whose keys are
+ * drawn from indexSize / duplicates distinct keys of the given kind: integers,
+ * or strings of a fixed length, of lengths spread uniformly up to
+ * MAX_KEY_LENGTH, or mostly short with now and then a long one.  The index
+ * has about ENTRIES_PER_BUCKET entries per bucket.  The insert and delete
+ * benchmarks undo their entry in per invocation fixtures, outside of the
+ * measurement, so the index keeps its size for the whole trial; JMH counts
+ * their timestamps in the results, so compare those with each other only.
+ * <br><br>
+ * The index lives either in a Minibase database or in a MemoryStorage; the
+ * difference between the two is the cost of the buffer manager and its I/O.
+ * <br><br>
+ * Run it with the JMH runner and the GC profiler for the allocation rate,
+ * with JMH and the index package on the class path:
+ *
+ * <pre>
+ * java index.HashIndexBenchmark [JMH benchmark regexp]
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashIndexBenchmark {
+
+	// Number of characters of the fixed length and of the short string keys
+	protected static final int SHORT_KEY_LENGTH = 8;
+
+	// Number of characters of the longest string keys, well below HashBucketPage.MAX_ENTRY_SIZE
+	protected static final int MAX_KEY_LENGTH = 48;
+
+	// One skewed string key out of this many is a long one
+	protected static final int LONG_KEY_INTERVAL = 16;
+
+	// Average number of entries per bucket of the benchmark indexes
+	protected static final int ENTRIES_PER_BUCKET = 256;
+
+	// Number of pages of the benchmark database, and of its buffer pool
+	protected static final int DATABASE_PAGES = 200000;
+	protected static final int BUFFER_PAGES = 1000;
+
+	/** Whether the benchmark database has been created in this JVM. */
+	protected static boolean databaseCreated;
+
+	/** Number of indexes created in this JVM, to name the next one. */
+	protected static int indexCount;
+
+	/** Storage of the index: minibase or memory. */
+	@Param({"minibase", "memory"})
+	public String storage;
+
+	/** Kind of keys: int, fixed, uniform or skewed (the last three are strings). */
+	@Param({"int", "fixed", "uniform", "skewed"})
+	public String keyType;
+
+	/** Number of entries sharing each key. */
+	@Param({"1", "8", "64"})
+	public int duplicates;
+
+	/** Number of entries in the index. */
+	@Param({"1000", "100000"})
+	public int indexSize;
+
+	/** Index being benchmarked. */
+	protected HashIndex index;
+
+	/** Distinct keys of the index. */
+	protected SearchKey[] keys;
+
+	/** Position in the shuffled order of the keys used by the next operation. */
+	protected int nextKey;
+
+	/** Order in which the operations go through the keys. */
+	protected int[] keyOrder;
+
+	/** RID of the next entry inserted by a benchmark, beyond those of the index. */
+	protected int nextRid;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Builds the index of the trial in the storage of the trial, creating the
+   * database once per JVM when it is a Minibase one.
+   */
+  @Setup(Level.Trial)
+  public void createIndex() {
+
+	  synchronized (HashIndexBenchmark.class)
+	  {
+		  PageStore pages = MinibaseStorage.DEFAULT;
+		  PageAllocator allocator = MinibaseStorage.DEFAULT;
+
+		  if (storage.equals("memory"))
+		  {
+			  MemoryStorage memoryStorage = new MemoryStorage();
+			  pages = memoryStorage;
+			  allocator = memoryStorage;
+		  }
+		  else
+		  {
+			  if (!databaseCreated)
+			  {
+				  new Minibase("hashbench.minibase", DATABASE_PAGES, BUFFER_PAGES, "Clock", false);
+				  databaseCreated = true;
+			  }
+		  }
+
+		  index = new HashIndex("BENCH_" + indexCount++, 32 - Integer.numberOfLeadingZeros(indexSize / ENTRIES_PER_BUCKET), pages, allocator);
+	  }
+
+	  Random random = new Random(indexSize);
+	  keys = new SearchKey[Math.max(1, indexSize / duplicates)];
+
+	  for (int i = 0; i < keys.length; i++)
+	  {
+		  keys[i] = createKey(i, random);
+	  }
+
+	  for (nextRid = 0; nextRid < indexSize; nextRid++)
+	  {
+		  index.insertEntry(keys[nextRid % keys.length], new RID(new PageId(nextRid), nextRid));
+	  }
+
+	  // Shuffle the keys once, so operations hit the buckets in no particular order
+	  keyOrder = new int[keys.length];
+
+	  for (int i = 0; i < keys.length; i++)
+	  {
+		  int j = random.nextInt(i + 1);
+		  keyOrder[i] = keyOrder[j];
+		  keyOrder[j] = i;
+	  }
+
+  } // public void createIndex()
+
+  /**
+   * Deletes the index of the trial.
+   */
+  @TearDown(Level.Trial)
+  public void deleteIndex() {
+
+	  index.deleteFile();
+	  index = null;
+
+  } // public void deleteIndex()
+
+  /**
+   * Creates the key with the given number, of the kind of the trial.
+   */
+  protected SearchKey createKey(int number, Random random) {
+
+	  if (keyType.equals("int"))
+	  {
+		  return new SearchKey(number);
+	  }
+
+	  int length = SHORT_KEY_LENGTH;
+
+	  if (keyType.equals("uniform"))
+	  {
+		  length = 1 + random.nextInt(MAX_KEY_LENGTH);
+	  }
+	  else if (keyType.equals("skewed") && 0 == random.nextInt(LONG_KEY_INTERVAL))
+	  {
+		  length = MAX_KEY_LENGTH;
+	  }
+
+	  // The number in base 36 keeps the keys distinct, and the upper case padding
+	  // can not be mistaken for the digits of another number
+	  StringBuilder builder = new StringBuilder(Integer.toString(number, 36));
+
+	  while (builder.length() < length)
+	  {
+		  builder.append((char) ('A' + random.nextInt(26)));
+	  }
+
+	  return new SearchKey(builder.toString());
+
+  } // protected SearchKey createKey(int number, Random random)
+
+  /**
+   * Gets the key of the next operation.
+   */
+  protected SearchKey nextKey() {
+
+	  if (nextKey == keyOrder.length)
+	  {
+		  nextKey = 0;
+	  }
+
+	  return keys[keyOrder[nextKey++]];
+
+  } // protected SearchKey nextKey()
+
+  /**
+   * Gets a RID that no entry of the index has yet.
+   */
+  protected RID nextRid() {
+
+	  RID rid = new RID(new PageId(nextRid), nextRid);
+	  nextRid++;
+
+	  return rid;
+
+  } // protected RID nextRid()
+
+  /**
+   * Inserts an entry, which is deleted again before the next invocation.
+   */
+  @Benchmark
+  public void insertEntry(InsertedEntry inserted) {
+	  index.insertEntry(inserted.key, inserted.rid);
+  }
+
+  /**
+   * Deletes an entry, which was inserted just before the invocation.
+   */
+  @Benchmark
+  public void deleteEntry(DeletedEntry deleted) {
+	  index.deleteEntry(deleted.key, deleted.rid);
+  }
+
+  /**
+   * Scans every entry of a key.
+   */
+  @Benchmark
+  public void scan(Blackhole blackhole) {
+
+	  HashScan scan = index.openScan(nextKey());
+
+	  for (RID found = scan.getNext(); null != found; found = scan.getNext())
+	  {
+		  blackhole.consume(found);
+	  }
+
+  } // public void scan(Blackhole blackhole)
+
+  /**
+   * Prints the summary of the index, to nowhere.
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void printSummary(QuietOutput quiet) {
+	  index.printSummary();
+  }
+
+  /**
+   * The entry of an insertEntry invocation, deleted after it.
+   */
+  @State(Scope.Thread)
+  public static class InsertedEntry {
+
+	  /** Entry being inserted. */
+	  protected SearchKey key;
+	  protected RID rid;
+
+	  /** Benchmark whose index the entry goes to. */
+	  protected HashIndexBenchmark benchmark;
+
+	@Setup(Level.Invocation)
+	public void pick(HashIndexBenchmark benchmark) {
+
+		this.benchmark = benchmark;
+		key = benchmark.nextKey();
+		rid = benchmark.nextRid();
+
+	} // public void pick(HashIndexBenchmark benchmark)
+
+	@TearDown(Level.Invocation)
+	public void undo() {
+		benchmark.index.deleteEntry(key, rid);
+	}
+
+  } // public static class InsertedEntry
+
+  /**
+   * The entry of a deleteEntry invocation, inserted before it.
+   */
+  @State(Scope.Thread)
+  public static class DeletedEntry {
+
+	  /** Entry being deleted. */
+	  protected SearchKey key;
+	  protected RID rid;
+
+	@Setup(Level.Invocation)
+	public void insert(HashIndexBenchmark benchmark) {
+
+		key = benchmark.nextKey();
+		rid = benchmark.nextRid();
+		benchmark.index.insertEntry(key, rid);
+
+	} // public void insert(HashIndexBenchmark benchmark)
+
+  } // public static class DeletedEntry
+
+  /**
+   * Sends the standard output to nowhere while printSummary runs.
+   */
+  @State(Scope.Thread)
+  public static class QuietOutput {
+
+	  /** Standard output, restored after the iteration. */
+	  protected PrintStream standardOut;
+
+	@Setup(Level.Iteration)
+	public void silence() {
+
+		standardOut = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+
+	} // public void silence()
+
+	@TearDown(Level.Iteration)
+	public void restore() {
+		System.setOut(standardOut);
+	}
+
+  } // public static class QuietOutput
+
+  /**
+   * Runs the benchmarks matching the given regular expression (all of them by
+   * default) with the GC profiler.
+   */
+  public static void main(String[] args) throws Exception {
+
+	  new Runner(new OptionsBuilder()
+			  .include(HashIndexBenchmark.class.getSimpleName() + "." + (args.length > 0 ? args[0] : ".*"))
+			  .addProfiler(GCProfiler.class)
+			  .build()).run();
+
+  } // public static void main(String[] args) throws Exception
+
+} // public class HashIndexBenchmark
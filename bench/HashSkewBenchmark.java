@@ -0,0 +1,243 @@
+package index;
+
+import java.util.Arrays;
+
+import global.Minibase;
+import global.PageId;
+import global.RID;
+
+/**
+ * Measures how each hashing scheme copes with skewed keys: for every key
+ * distribution of KeyWorkload, it fills a static, an extendible and a linear
+ * index with the same stream of keys, times the inserts and a stream of
+ * scans, and reports the distribution of the bucket chain lengths.  Usage:
+ *
+ * <pre>
+ * java index.HashSkewBenchmark [entries] [static depth] [distinct keys] [minibase | memory]
+ * </pre>
+ *
+ * Sample report line (chain lengths in pages, the histogram counts the buckets
+ * whose chain has 0, 1, 2-3, 4-7, ... pages):
+ *
+ * <pre>
+ * zipf      static      128 buckets   1559 pages   mean 12.2  p50 8  p90 22  p99 107  max 151  [0 0 1 62 48 9 5 2 1]  ...
+ * </pre>
+ */
+public class HashSkewBenchmark {
+
+	// Number of scans timed after the inserts of each run
+	protected static final int SCAN_COUNT = 10000;
+
+	// Seed of the key streams, the same for every scheme
+	protected static final long SEED = 42;
+
+	// The hashing schemes compared
+	protected static final String[] SCHEMES = {"static", "extendible", "linear"};
+
+	/** Number of entries inserted by each run. */
+	protected int entryCount;
+
+	/** Depth of the static indexes, which the collision keys are aimed at. */
+	protected int depth;
+
+	/** Number of distinct keys of the workloads. */
+	protected int keyCount;
+
+	/** Number of indexes created, to name the next one. */
+	protected int indexCount;
+
+	/** Store and allocator the indexes are created in. */
+	protected PageStore pages;
+	protected PageAllocator allocator;
+
+  // --------------------------------------------------------------------------
+
+  public HashSkewBenchmark(int entryCount, int depth, int keyCount, PageStore pages, PageAllocator allocator) {
+
+	  this.pages = pages;
+	  this.allocator = allocator;
+	  this.entryCount = entryCount;
+	  this.depth = depth;
+	  this.keyCount = keyCount;
+
+  } // public HashSkewBenchmark(int entryCount, int depth, int keyCount, PageStore pages, PageAllocator allocator)
+
+  /**
+   * Runs every scheme on every distribution, printing one report line per run.
+   */
+  public void run() {
+
+	  for (String distribution : KeyWorkload.DISTRIBUTIONS)
+	  {
+		  for (String scheme : SCHEMES)
+		  {
+			  runOne(distribution, scheme);
+		  }
+	  }
+
+  } // public void run()
+
+  /**
+   * Fills a new index of the given scheme with keys of the given distribution,
+   * scans it, reports its chain lengths and deletes it.
+   */
+  protected void runOne(String distribution, String scheme) {
+
+	  HashIndex index;
+	  String fileName = "SKEW_" + indexCount++;
+
+	  if (scheme.equals("static"))
+	  {
+		  index = new HashIndex(fileName, depth, pages, allocator);
+	  }
+	  else if (scheme.equals("extendible"))
+	  {
+		  index = new ExtendibleHashIndex(fileName, 0, pages, allocator);
+	  }
+	  else
+	  {
+		  index = new LinearHashIndex(fileName, 0, pages, allocator);
+	  }
+
+	  // Every scheme gets the same keys, and the scans the keys of a second stream
+	  KeyWorkload workload = new KeyWorkload(distribution, keyCount, depth, SEED);
+	  long start = System.nanoTime();
+
+	  for (int i = 0; i < entryCount; i++)
+	  {
+		  index.insertEntry(workload.nextKey(), new RID(new PageId(i), i));
+	  }
+
+	  long insertNanos = System.nanoTime() - start;
+	  workload = new KeyWorkload(distribution, keyCount, depth, SEED + 1);
+	  long found = 0;
+	  start = System.nanoTime();
+
+	  for (int i = 0; i < SCAN_COUNT; i++)
+	  {
+		  HashScan scan = index.openScan(workload.nextKey());
+
+		  while (null != scan.getNext())
+		  {
+			  found++;
+		  }
+	  }
+
+	  long scanNanos = System.nanoTime() - start;
+
+	  System.out.println(pad(distribution, 10) + pad(scheme, 12) + reportChains(index.getStatistics().getChainLengths())
+			  + "  inserts/s " + perSecond(entryCount, insertNanos) + "  scans/s " + perSecond(SCAN_COUNT, scanNanos)
+			  + "  rids/scan " + (found / SCAN_COUNT));
+
+	  index.deleteFile();
+
+  } // protected void runOne(String distribution, String scheme)
+
+  /**
+   * Summarizes a distribution of chain lengths: the number of buckets and
+   * pages, the mean, percentiles and maximum chain length, and a histogram of
+   * the buckets by power of two of their chain length.
+   */
+  public static String reportChains(int[] chainLengths) {
+
+	  int[] sorted = chainLengths.clone();
+	  Arrays.sort(sorted);
+
+	  long pageCount = 0;
+	  int[] histogram = new int[32];
+	  int highestBin = 0;
+
+	  for (int length : sorted)
+	  {
+		  pageCount += length;
+
+		  // Bin 0 holds empty buckets, bin b the chains of 2^(b-1) to 2^b - 1 pages
+		  int bin = 32 - Integer.numberOfLeadingZeros(length);
+		  histogram[bin]++;
+		  highestBin = Math.max(highestBin, bin);
+	  }
+
+	  StringBuilder report = new StringBuilder();
+	  report.append(pad(sorted.length + " buckets", 14)).append(pad(pageCount + " pages", 13));
+	  report.append("mean ").append(Math.round(10.0 * pageCount / Math.max(1, sorted.length)) / 10.0);
+	  report.append("  p50 ").append(percentile(sorted, 50));
+	  report.append("  p90 ").append(percentile(sorted, 90));
+	  report.append("  p99 ").append(percentile(sorted, 99));
+	  report.append("  max ").append(0 == sorted.length ? 0 : sorted[sorted.length - 1]);
+	  report.append("  [");
+
+	  for (int bin = 0; bin <= highestBin; bin++)
+	  {
+		  report.append(0 == bin ? "" : " ").append(histogram[bin]);
+	  }
+
+	  return report.append("]").toString();
+
+  } // public static String reportChains(int[] chainLengths)
+
+  /**
+   * Gets the given percentile of sorted values, 0 if there are none.
+   */
+  protected static int percentile(int[] sorted, int percent) {
+
+	  if (0 == sorted.length)
+	  {
+		  return 0;
+	  }
+
+	  return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+
+  } // protected static int percentile(int[] sorted, int percent)
+
+  /**
+   * Gets the number of operations per second, given how long they took.
+   */
+  protected static long perSecond(long operations, long nanos) {
+	  return operations * 1000000000L / Math.max(1, nanos);
+  }
+
+  /**
+   * Pads a string with spaces up to the given width.
+   */
+  protected static String pad(String text, int width) {
+
+	  StringBuilder padded = new StringBuilder(text);
+
+	  while (padded.length() < width)
+	  {
+		  padded.append(' ');
+	  }
+
+	  return padded.toString();
+
+  } // protected static String pad(String text, int width)
+
+  /**
+   * Creates a database, or an in-memory storage, and runs the
+   * benchmark on it.
+   */
+  public static void main(String[] args) {
+
+	  int entryCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+	  int depth = args.length > 1 ? Integer.parseInt(args[1]) : 7;
+	  int keyCount = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+	  PageStore pages = MinibaseStorage.DEFAULT;
+	  PageAllocator allocator = MinibaseStorage.DEFAULT;
+
+	  if (args.length > 3 && args[3].equals("memory"))
+	  {
+		  MemoryStorage storage = new MemoryStorage();
+		  pages = storage;
+		  allocator = storage;
+	  }
+	  else
+	  {
+		  new Minibase("hashskew.minibase", 100000, 200, "Clock", false);
+	  }
+
+	  new HashSkewBenchmark(entryCount, depth, keyCount, pages, allocator).run();
+
+  } // public static void main(String[] args)
+
+} // public class HashSkewBenchmark
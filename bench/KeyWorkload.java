@@ -0,0 +1,172 @@
+package index;
+
+import java.util.Random;
+
+import global.SearchKey;
+
+/**
+ * A stream of integer search keys for the index benchmarks, drawn from
+ * keyCount distinct keys by one of these distributions:
+ *
+ * <ul>
+ * <li>uniform : every key is as likely</li>
+ * <li>zipf : the key of rank r comes with a probability proportional to
+ * 1 / r^ZIPF_THETA, so a few keys dominate the stream</li>
+ * <li>hotspot : HOT_OPERATION_FRACTION of the stream goes to the first
+ * HOT_KEY_FRACTION of the keys, the rest to the others</li>
+ * <li>collision : every key hashes to bucket 0 on collisionDepth bits, as if
+ * an adversary picked them, so they share one bucket of a static index of
+ * that depth and only part ways on the bits above it</li>
+ * </ul>
+ *
+ * The stream is the same for the same seed.
+ */
+public class KeyWorkload {
+
+	// Skew of the Zipfian distribution, as in YCSB
+	protected static final double ZIPF_THETA = 0.99;
+
+	// Fraction of the keys that are hot, and of the stream that goes to them
+	protected static final double HOT_KEY_FRACTION = 0.01;
+	protected static final double HOT_OPERATION_FRACTION = 0.9;
+
+	// The distributions of key streams
+	public static final String[] DISTRIBUTIONS = {"uniform", "zipf", "hotspot", "collision"};
+
+	/** Distribution the keys are drawn from. */
+	protected String distribution;
+
+	/** Number of distinct keys. */
+	protected int keyCount;
+
+	/** Random numbers the keys are drawn with. */
+	protected Random random;
+
+	/** Keys of the collision distribution, by rank, or null. */
+	protected SearchKey[] collisionKeys;
+
+	/** Constants of the Zipfian distribution, computed once. */
+	protected double zetaN;
+	protected double zipfAlpha;
+	protected double zipfEta;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Creates a stream of keys of the given distribution.  The collision depth
+   * is only used by the collision distribution, and should be the depth of
+   * the index under test.
+   *
+   * @throws IllegalArgumentException if the distribution is unknown or
+   * keyCount is not positive
+   */
+  public KeyWorkload(String distribution, int keyCount, int collisionDepth, long seed) {
+
+	  if (keyCount <= 0)
+	  {
+		  throw new IllegalArgumentException("A workload needs at least one key!");
+	  }
+
+	  this.distribution = distribution;
+	  this.keyCount = keyCount;
+	  random = new Random(seed);
+
+	  if (distribution.equals("zipf"))
+	  {
+		  // Constants of Gray et al., "Quickly Generating Billion-Record Synthetic Databases"
+		  zetaN = zeta(keyCount);
+		  zipfAlpha = 1.0 / (1.0 - ZIPF_THETA);
+		  zipfEta = (1.0 - Math.pow(2.0 / keyCount, 1.0 - ZIPF_THETA)) / (1.0 - zeta(2) / zetaN);
+	  }
+	  else if (distribution.equals("collision"))
+	  {
+		  // Keep the integers whose low collisionDepth hash bits are all 0, about one in 2^collisionDepth
+		  collisionKeys = new SearchKey[keyCount];
+
+		  for (int i = 0, value = 0; i < keyCount; value++)
+		  {
+			  SearchKey key = new SearchKey(value);
+
+			  if (0 == key.getHash(collisionDepth))
+			  {
+				  collisionKeys[i++] = key;
+			  }
+		  }
+	  }
+	  else if (!distribution.equals("uniform") && !distribution.equals("hotspot"))
+	  {
+		  throw new IllegalArgumentException("Unknown key distribution " + distribution + "!");
+	  }
+
+  } // public KeyWorkload(String distribution, int keyCount, int collisionDepth, long seed)
+
+  /**
+   * Gets the next key of the stream.
+   */
+  public SearchKey nextKey() {
+
+	  if (null != collisionKeys)
+	  {
+		  return collisionKeys[random.nextInt(keyCount)];
+	  }
+
+	  return new SearchKey(nextRank());
+
+  } // public SearchKey nextKey()
+
+  /**
+   * Draws the rank of the next key, 0 being the most frequent one.
+   */
+  protected int nextRank() {
+
+	  if (distribution.equals("zipf"))
+	  {
+		  double u = random.nextDouble();
+		  double uz = u * zetaN;
+
+		  if (uz < 1.0)
+		  {
+			  return 0;
+		  }
+
+		  if (uz < 1.0 + Math.pow(0.5, ZIPF_THETA))
+		  {
+			  return 1;
+		  }
+
+		  return Math.min(keyCount - 1, (int) (keyCount * Math.pow(zipfEta * u - zipfEta + 1.0, zipfAlpha)));
+	  }
+
+	  if (distribution.equals("hotspot"))
+	  {
+		  int hotKeys = Math.max(1, (int) (keyCount * HOT_KEY_FRACTION));
+
+		  if (hotKeys == keyCount || random.nextDouble() < HOT_OPERATION_FRACTION)
+		  {
+			  return random.nextInt(hotKeys);
+		  }
+
+		  return hotKeys + random.nextInt(keyCount - hotKeys);
+	  }
+
+	  return random.nextInt(keyCount);
+
+  } // protected int nextRank()
+
+  /**
+   * Computes the sum of 1 / i^ZIPF_THETA for i from 1 to n.
+   */
+  protected static double zeta(int n) {
+
+	  double sum = 0;
+
+	  for (int i = 1; i <= n; i++)
+	  {
+		  sum += 1.0 / Math.pow(i, ZIPF_THETA);
+	  }
+
+	  return sum;
+
+  } // protected static double zeta(int n)
+
+} // public class KeyWorkload
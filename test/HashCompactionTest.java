@@ -0,0 +1,134 @@
+package index;
+
+import global.Minibase;
+import global.PageId;
+import global.RID;
+import global.SearchKey;
+
+/**
+ * Regression tests of overflow chain compaction.  Usage:
+ *
+ * <pre>
+ * java index.HashCompactionTest
+ * </pre>
+ */
+public class HashCompactionTest {
+
+	// Length of the keys that fit only one to a page, over half of a page
+	protected static final int HALF_PAGE_KEY_LENGTH = HashBucketPage.MAX_ENTRY_SIZE / 2 + 8;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Compacts a bucket whose entries each take more than half of a page, so
+   * no repacking can shorten its chain, then keeps using the bucket.  The
+   * chain must be left as it was, with its insert page still in it.
+   *
+   * @throws AssertionError if the compaction freed pages or lost entries
+   */
+  public static void testUnshortenableChain() {
+
+	  HashIndex index = new HashIndex("COMPACT_HALF_PAGES", 0);
+	  SearchKey[] keys = new SearchKey[3];
+
+	  for (int i = 0; i < keys.length; i++)
+	  {
+		  keys[i] = new SearchKey(repeat((char) ('a' + i), HALF_PAGE_KEY_LENGTH));
+		  index.insertEntry(keys[i], new RID(new PageId(i), i));
+	  }
+
+	  check(3 == index.getStatistics().getTotalPages(), "Three entries of over half a page should take three pages");
+	  check(0 == index.compact(), "A chain that can not get shorter should not free any page");
+
+	  // The bucket must still take inserts at its insert page, and deletes
+	  index.insertEntry(keys[0], new RID(new PageId(3), 3));
+	  index.deleteEntry(keys[1], new RID(new PageId(1), 1));
+
+	  check(3 == index.size(), "The bucket should hold 3 entries, not " + index.size());
+	  check(index.getStatistics().getTotalPages() == index.measureStatistics().getTotalPages(), "The chain length count should match the chain");
+
+	  index.deleteFile();
+
+  } // public static void testUnshortenableChain()
+
+  /**
+   * Compacts a bucket left sparse by deletes, which must free pages and keep
+   * every entry.
+   *
+   * @throws AssertionError if the compaction freed no page or lost entries
+   */
+  public static void testSparseChain() {
+
+	  HashIndex index = new HashIndex("COMPACT_SPARSE", 0);
+
+	  for (int i = 0; i < 2000; i++)
+	  {
+		  index.insertEntry(new SearchKey(i), new RID(new PageId(i), i));
+	  }
+
+	  for (int i = 0; i < 2000; i++)
+	  {
+		  if (0 != i % 10)
+		  {
+			  index.deleteEntry(new SearchKey(i), new RID(new PageId(i), i));
+		  }
+	  }
+
+	  check(index.compact() > 0, "A sparse chain should get shorter");
+	  check(200 == index.size(), "The bucket should hold 200 entries, not " + index.size());
+	  check(index.getStatistics().getTotalPages() == index.measureStatistics().getTotalPages(), "The chain length count should match the chain");
+
+	  for (int i = 2000; i < 2100; i++)
+	  {
+		  index.insertEntry(new SearchKey(i), new RID(new PageId(i), i));
+	  }
+
+	  check(300 == index.measureStatistics().getTotalEntries(), "The bucket should hold 300 entries after compacting");
+
+	  index.deleteFile();
+
+  } // public static void testSparseChain()
+
+  /**
+   * Gets a string of the given character repeated.
+   */
+  protected static String repeat(char c, int count) {
+
+	  StringBuilder text = new StringBuilder();
+
+	  for (int i = 0; i < count; i++)
+	  {
+		  text.append(c);
+	  }
+
+	  return text.toString();
+
+  } // protected static String repeat(char c, int count)
+
+  /**
+   * @throws AssertionError with the given message if the condition is false
+   */
+  protected static void check(boolean condition, String message) {
+
+	  if (!condition)
+	  {
+		  throw new AssertionError(message);
+	  }
+
+  } // protected static void check(boolean condition, String message)
+
+  /**
+   * Creates a database and runs every test.
+   */
+  public static void main(String[] args) {
+
+	  new Minibase("hashcompact.minibase", 10000, 100, "Clock", false);
+
+	  testUnshortenableChain();
+	  testSparseChain();
+
+	  System.out.println("OK");
+
+  } // public static void main(String[] args)
+
+} // public class HashCompactionTest
@@ -0,0 +1,268 @@
+package index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import global.Minibase;
+import global.PageId;
+import global.RID;
+import global.SearchKey;
+
+/**
+ * Concurrency stress test of the hash package: many threads insert, delete
+ * and scan many indexes of every hashing scheme at once, and every scan is
+ * checked against what the threads know the index holds.
+ * <br><br>
+ * Each thread owns the keys congruent to its number modulo the thread count
+ * in every index, so it knows exactly which RIDs a scan of one of its keys
+ * must return, while its keys share buckets, pages and splits with the keys
+ * of the other threads.  One thread also compacts the indexes now and then.
+ * At the end every key of every index is scanned once more, and all pages
+ * must be unpinned.
+ * <br><br>
+ * The indexes live in a MemoryStorage, which is built for concurrent use, so
+ * the hash structures are stressed without the buffer manager getting in the
+ * way.  When the last argument is "minibase" they live in a Minibase database
+ * instead, whose managers MinibaseStorage runs one call at a time.  Usage:
+ *
+ * <pre>
+ * java index.HashIndexStressTest [threads] [indexes] [operations per thread] [memory | minibase]
+ * </pre>
+ */
+public class HashIndexStressTest {
+
+	// Number of keys each thread uses in each index
+	protected static final int KEYS_PER_THREAD = 200;
+
+	// Number of operations between two compactions by the first thread
+	protected static final int COMPACT_INTERVAL = 5000;
+
+	/** Indexes being stressed. */
+	protected HashIndex[] indexes;
+
+	/** Store the indexes live in. */
+	protected PageStore pages;
+
+	/** Number of threads. */
+	protected int threadCount;
+
+	/** Number of operations each thread runs. */
+	protected int operationCount;
+
+	/** First failure seen by any thread, or null. */
+	protected AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Creates the given number of indexes in the given storage, cycling through
+   * the static, extendible and linear hashing schemes.
+   */
+  public HashIndexStressTest(int threadCount, int indexCount, int operationCount, PageStore pages, PageAllocator allocator) {
+
+	  this.pages = pages;
+	  this.threadCount = threadCount;
+	  this.operationCount = operationCount;
+	  indexes = new HashIndex[indexCount];
+
+	  for (int i = 0; i < indexCount; i++)
+	  {
+		  switch (i % 3)
+		  {
+			  case 0:
+				  indexes[i] = new HashIndex("STRESS_" + i, 2, pages, allocator);
+				  break;
+			  case 1:
+				  indexes[i] = new ExtendibleHashIndex("STRESS_" + i, 0, pages, allocator);
+				  break;
+			  default:
+				  indexes[i] = new LinearHashIndex("STRESS_" + i, 0, pages, allocator);
+				  break;
+		  }
+	  }
+
+  } // public HashIndexStressTest(int threadCount, int indexCount, int operationCount, PageStore pages, PageAllocator allocator)
+
+  /**
+   * Runs every thread to completion, then checks the final contents of the
+   * indexes and deletes them.
+   *
+   * @throws AssertionError if a scan returned the wrong RIDs
+   */
+  public void run() throws Throwable {
+
+	  final ArrayList<HashMap<Integer, HashSet<Integer>>> contents = new ArrayList<HashMap<Integer, HashSet<Integer>>>();
+	  Thread[] threads = new Thread[threadCount];
+
+	  for (int t = 0; t < threadCount; t++)
+	  {
+		  final int threadNumber = t;
+		  final HashMap<Integer, HashSet<Integer>> expected = new HashMap<Integer, HashSet<Integer>>();
+		  contents.add(expected);
+
+		  threads[t] = new Thread(new Runnable() {
+			  public void run() {
+				  try
+				  {
+					  runThread(threadNumber, expected);
+				  }
+				  catch (Throwable e)
+				  {
+					  failure.compareAndSet(null, e);
+				  }
+			  }
+		  }, "HashIndexStressTest " + t);
+	  }
+
+	  long start = System.currentTimeMillis();
+
+	  for (Thread thread : threads)
+	  {
+		  thread.start();
+	  }
+
+	  for (Thread thread : threads)
+	  {
+		  thread.join();
+	  }
+
+	  long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+	  if (null != failure.get())
+	  {
+		  throw failure.get();
+	  }
+
+	  // Every key of every index must hold exactly what its thread left in it
+	  for (int t = 0; t < threadCount; t++)
+	  {
+		  for (int i = 0; i < indexes.length; i++)
+		  {
+			  for (int k = 0; k < KEYS_PER_THREAD; k++)
+			  {
+				  int key = k * threadCount + t;
+				  checkScan(i, key, contents.get(t).get(i * KEYS_PER_THREAD + k));
+			  }
+		  }
+	  }
+
+	  if (0 != pages.getPinnedCount())
+	  {
+		  throw new AssertionError("Pages were left pinned!");
+	  }
+
+	  for (HashIndex index : indexes)
+	  {
+		  index.deleteFile();
+	  }
+
+	  long operations = (long) threadCount * operationCount;
+	  System.out.println(threadCount + " threads, " + indexes.length + " indexes : " + operations + " operations in "
+			  + elapsed + " ms (" + (operations * 1000 / elapsed) + " per second)");
+
+  } // public void run() throws Throwable
+
+  /**
+   * Runs the operations of one thread: inserts, deletes and scans of its own
+   * keys, picked at random among all indexes.
+   */
+  protected void runThread(int threadNumber, HashMap<Integer, HashSet<Integer>> expected) {
+
+	  Random random = new Random(threadNumber);
+	  int nextRid = threadNumber * operationCount;
+
+	  for (int i = 0; i < operationCount; i++)
+	  {
+		  int index = random.nextInt(indexes.length);
+		  int k = random.nextInt(KEYS_PER_THREAD);
+		  int key = k * threadCount + threadNumber;
+		  HashSet<Integer> rids = expected.get(index * KEYS_PER_THREAD + k);
+
+		  if (null == rids)
+		  {
+			  rids = new HashSet<Integer>();
+			  expected.put(index * KEYS_PER_THREAD + k, rids);
+		  }
+
+		  int operation = random.nextInt(10);
+
+		  if (operation < 5)
+		  {
+			  indexes[index].insertEntry(new SearchKey(key), new RID(new PageId(nextRid), nextRid));
+			  rids.add(nextRid++);
+		  }
+		  else if (operation < 7 && !rids.isEmpty())
+		  {
+			  int rid = rids.iterator().next();
+			  indexes[index].deleteEntry(new SearchKey(key), new RID(new PageId(rid), rid));
+			  rids.remove(rid);
+		  }
+		  else
+		  {
+			  checkScan(index, key, rids);
+		  }
+
+		  if (0 == threadNumber && 0 == (i + 1) % COMPACT_INTERVAL)
+		  {
+			  indexes[random.nextInt(indexes.length)].compact();
+		  }
+	  }
+
+  } // protected void runThread(int threadNumber, HashMap<Integer, HashSet<Integer>> expected)
+
+  /**
+   * Scans a key of an index and checks that it returns exactly the expected RIDs.
+   *
+   * @throws AssertionError if the scan returned other RIDs
+   */
+  protected void checkScan(int index, int key, HashSet<Integer> expected) {
+
+	  HashSet<Integer> found = new HashSet<Integer>();
+	  HashScan scan = indexes[index].openScan(new SearchKey(key));
+
+	  for (RID rid = scan.getNext(); null != rid; rid = scan.getNext())
+	  {
+		  if (!found.add(rid.slotno))
+		  {
+			  throw new AssertionError("Key " + key + " of index " + index + " returned RID " + rid.slotno + " twice!");
+		  }
+	  }
+
+	  if (!found.equals(null == expected ? new HashSet<Integer>() : expected))
+	  {
+		  throw new AssertionError("Key " + key + " of index " + index + " returned " + found + " instead of " + expected + "!");
+	  }
+
+  } // protected void checkScan(int index, int key, HashSet<Integer> expected)
+
+  /**
+   * Creates an in-memory storage, or a database, and runs the stress test
+   * on it.
+   */
+  public static void main(String[] args) throws Throwable {
+
+	  int threadCount = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+	  int indexCount = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+	  int operationCount = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+	  MemoryStorage storage = new MemoryStorage();
+	  PageStore pages = storage;
+	  PageAllocator allocator = storage;
+
+	  if (args.length > 3 && args[3].equals("minibase"))
+	  {
+		  // Every thread may pin a few pages at once, besides the directory pages
+		  new Minibase("hashstress.minibase", 50000, 100 + 4 * threadCount, "Clock", false);
+		  pages = MinibaseStorage.DEFAULT;
+		  allocator = MinibaseStorage.DEFAULT;
+	  }
+
+	  new HashIndexStressTest(threadCount, indexCount, operationCount, pages, allocator).run();
+	  System.out.println("OK");
+
+  } // public static void main(String[] args) throws Throwable
+
+} // public class HashIndexStressTest